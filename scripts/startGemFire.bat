@@ -12,6 +12,10 @@ set "DEFAULT_SERVER_MEMORY=4g"
 set "DEFAULT_JVM_OPTS=--J=-Djava.net.preferIPv4Stack=true"
 set "LOCATORS=localhost[10334]"
 
+:: The Lucene serializer decides how locations are indexed - LatLonPointSerializer for the BKD point index.
+:: The web application has to query with the same one, see demo.GeospatialWebServer.indexType.
+IF NOT DEFINED LUCENE_SERIALIZER SET "LUCENE_SERIALIZER=demo.gemfire.asset.tracker.lib.LocationInfoSerializer"
+
 :: Locator configuration
 set "COMMON_LOCATOR_ITEMS=--initial-heap=%DEFAULT_LOCATOR_MEMORY%"
 set "COMMON_LOCATOR_ITEMS=%COMMON_LOCATOR_ITEMS% --max-heap=%DEFAULT_LOCATOR_MEMORY%"
@@ -87,6 +91,6 @@ if "%allStarted%" equ "false" (
 )
 echo Servers started at %TIME%
 :CONTINUE
-gfsh -e "connect --locator=%LOCATORS%" -e "deploy --jar %APP_HOME%/tracker-lib/build/libs/tracker-lib.jar" -e "create lucene index --name=simpleIndex --region=geoSpatialRegion --field=uid --serializer=demo.gemfire.asset.tracker.lib.LocationInfoSerializer" -e "create region --name=geoSpatialRegion --type=PARTITION_REDUNDANT"
+gfsh -e "connect --locator=%LOCATORS%" -e "deploy --jars=%APP_HOME%/tracker-lib/build/libs/tracker-lib.jar,%APP_HOME%/tracker-lib/build/libs/jts-core.jar" -e "create lucene index --name=simpleIndex --region=geoSpatialRegion --field=uid --serializer=%LUCENE_SERIALIZER%" -e "create region --name=geoSpatialRegion --type=PARTITION_REDUNDANT --total-num-buckets=113"
 echo GemFire started and configured at %TIME%
 
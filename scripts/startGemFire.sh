@@ -17,6 +17,10 @@ function waitForPort {
     done
 }
 
+# The Lucene serializer decides how locations are indexed - LatLonPointSerializer for the BKD point index.
+# The web application has to query with the same one, see demo.GeospatialWebServer.indexType.
+LUCENE_SERIALIZER="${LUCENE_SERIALIZER:-demo.gemfire.asset.tracker.lib.LocationInfoSerializer}"
+
 DEFAULT_LOCATOR_MEMORY="--initial-heap=1g --max-heap=1g"
 
 DEFAULT_SERVER_MEMORY="--initial-heap=2g --max-heap=2g"
@@ -47,6 +51,6 @@ gfsh --e "start server  ${SERVER_OPTS} --name=server2 --dir=${APP_HOME}/data/ser
 
 wait
 
-gfsh -e "connect " -e "deploy --jar ${APP_HOME}/tracker-lib/build/libs/tracker-lib.jar" -e "create lucene index --name=simpleIndex --region=geoSpatialRegion --field=uid --serializer=demo.gemfire.asset.tracker.lib.LocationInfoSerializer" -e "create region --name=geoSpatialRegion --type=PARTITION_REDUNDANT"
+gfsh -e "connect " -e "deploy --jars=${APP_HOME}/tracker-lib/build/libs/tracker-lib.jar,${APP_HOME}/tracker-lib/build/libs/jts-core.jar" -e "create lucene index --name=simpleIndex --region=geoSpatialRegion --field=uid --serializer=${LUCENE_SERIALIZER}" -e "create region --name=geoSpatialRegion --type=PARTITION_REDUNDANT --total-num-buckets=113"
 
 
@@ -0,0 +1,76 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.bench;
+
+import demo.gemfire.asset.tracker.simulator.Actor;
+import demo.gemfire.asset.tracker.simulator.CompactActors;
+import demo.gemfire.asset.tracker.simulator.Roads;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moving an actor to its next vertex, the work done for every simulated event.  Round robins over a set of actors so
+ * the numbers include the cache misses a real run has.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ActorBenchmark {
+
+    @Param({"100000"})
+    private int numberOfActors;
+
+    private Actor[] actors;
+    private CompactActors compactActors;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        Roads roads = RoadsBenchmark.loadRoads();
+        actors = new Actor[numberOfActors];
+        compactActors = new CompactActors(roads, numberOfActors);
+        for (int i = 0; i < numberOfActors; i++) {
+            double mph = Math.random() * 20 + 50;
+            actors[i] = new Actor(mph, roads, roads.getRandomRoadId(), Integer.toString(i));
+            compactActors.add(mph);
+        }
+    }
+
+    private int nextActor() {
+        int actor = next;
+        next = actor + 1 == numberOfActors ? 0 : actor + 1;
+        return actor;
+    }
+
+    @Benchmark
+    public long advance() {
+        Actor actor = actors[nextActor()];
+        actor.advance();
+        return actor.timeToAdvance();
+    }
+
+    @Benchmark
+    public long compactAdvance() {
+        int actor = nextActor();
+        compactActors.advance(actor);
+        return compactActors.timeToAdvance(actor);
+    }
+}
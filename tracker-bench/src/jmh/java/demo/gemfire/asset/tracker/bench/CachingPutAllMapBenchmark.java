@@ -0,0 +1,152 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.bench;
+
+import demo.gemfire.asset.tracker.lib.LocationEvent;
+import demo.gemfire.asset.tracker.simulator.CachingPutAllMap;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulator writers all putting into one CachingPutAllMap, with and without write behind.
+ * <p>
+ * The wrapped map stands in for the client region - every get and putAll waits out a fixed round trip.  Without
+ * write behind each put reads the previous value back with a get, which is the round trip write behind saves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CachingPutAllMapBenchmark {
+
+    private static final int KEYS = 100_000;
+
+    @Param({"false", "true"})
+    private boolean writeBehind;
+    @Param({"500"})
+    private long roundTripMicros;
+
+    private CachingPutAllMap map;
+    private ThreadPoolTaskExecutor executor;
+    private String[] keys;
+
+    @Setup
+    public void setup() throws Exception {
+        keys = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = Integer.toString(i);
+        }
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(16);
+        executor.setMaxPoolSize(16);
+        executor.setQueueCapacity(16);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+
+        map = new CachingPutAllMap();
+        map.setCallerSends(false);
+        map.setBatchSize(100);
+        map.setTimeout(100);
+        map.setWriteBehind(writeBehind);
+        map.setStripeCount(32);
+        map.setMaxInFlightBatches(16);
+        map.setExecutor(executor);
+        map.setWrappedMap(new RoundTripMap(TimeUnit.MICROSECONDS.toNanos(roundTripMicros)));
+        map.afterPropertiesSet();
+    }
+
+    @TearDown
+    public void tearDown() {
+        map.flush();
+        executor.shutdown();
+    }
+
+    @State(Scope.Thread)
+    public static class Writer {
+        int next = (int) (Math.random() * KEYS);
+    }
+
+    private void write(Writer writer) {
+        String key = keys[writer.next];
+        writer.next = writer.next + 1 == KEYS ? 0 : writer.next + 1;
+        map.write(key, new LocationEvent(34.0522, -118.2437, key));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void write_01(Writer writer) {
+        write(writer);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void write_02(Writer writer) {
+        write(writer);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void write_04(Writer writer) {
+        write(writer);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void write_08(Writer writer) {
+        write(writer);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void write_16(Writer writer) {
+        write(writer);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void write_32(Writer writer) {
+        write(writer);
+    }
+
+    private static class RoundTripMap extends ConcurrentHashMap<Object, Object> {
+        private final long roundTripNanos;
+
+        RoundTripMap(long roundTripNanos) {
+            this.roundTripNanos = roundTripNanos;
+        }
+
+        @Override
+        public Object get(Object key) {
+            LockSupport.parkNanos(roundTripNanos);
+            return super.get(key);
+        }
+
+        @Override
+        public void putAll(Map<?, ?> m) {
+            LockSupport.parkNanos(roundTripNanos);
+            super.putAll(m);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.bench;
+
+import demo.gemfire.asset.tracker.lib.LocationEvent;
+import org.apache.geode.DataSerializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A location update sent as a full value versus as a delta.
+ * <p>
+ * The send benchmarks count the value bytes put on the wire (the {@code bytes} and {@code updates} counters in the
+ * results - the message around the value is the same either way).  The apply benchmarks are the work a server does to
+ * take the update, once on the primary and again on the redundant copy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeltaBenchmark {
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private LocationEvent event;
+    private LocationEvent serverCopy;
+    private byte[] fullValue;
+    private byte[] delta;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class WireBytes {
+        public long bytes;
+        public long updates;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        event = new LocationEvent(34.0522, -118.2437, "123456");
+        serverCopy = new LocationEvent(34.0522, -118.2437, "123456");
+        DataSerializer.writeObject(event, out);
+        fullValue = bytes.toByteArray();
+        move();
+        bytes.reset();
+        event.toDelta(out);
+        delta = bytes.toByteArray();
+    }
+
+    private void move() {
+        event.setLat(event.getLat() + 0.0001f);
+        event.setLng(event.getLng() - 0.0001f);
+    }
+
+    @Benchmark
+    public int sendFullValue(WireBytes wire) throws IOException {
+        move();
+        bytes.reset();
+        DataSerializer.writeObject(event, out);
+        wire.bytes += bytes.size();
+        wire.updates++;
+        return bytes.size();
+    }
+
+    @Benchmark
+    public int sendDelta(WireBytes wire) throws IOException {
+        move();
+        bytes.reset();
+        event.toDelta(out);
+        wire.bytes += bytes.size();
+        wire.updates++;
+        return bytes.size();
+    }
+
+    @Benchmark
+    public Object applyFullValue() throws IOException, ClassNotFoundException {
+        return DataSerializer.readObject(new DataInputStream(new ByteArrayInputStream(fullValue)));
+    }
+
+    @Benchmark
+    public LocationEvent applyDelta() throws IOException {
+        serverCopy.fromDelta(new DataInputStream(new ByteArrayInputStream(delta)));
+        return serverCopy;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.bench;
+
+import demo.gemfire.asset.tracker.lib.LocationEvent;
+import demo.gemfire.asset.tracker.lib.CompactLocationEvent;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What it costs to write and read a location on the wire - the default format and the compact one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocationEventBenchmark {
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private LocationEvent event;
+    private CompactLocationEvent compactEvent;
+    private byte[] serialized;
+    private byte[] compactSerialized;
+
+    @Setup
+    public void setup() throws IOException {
+        event = new LocationEvent(34.0522, -118.2437, "123456");
+        compactEvent = new CompactLocationEvent(34.0522, -118.2437, "123456");
+        event.toData(out);
+        serialized = bytes.toByteArray();
+        bytes.reset();
+        compactEvent.toData(out);
+        compactSerialized = bytes.toByteArray();
+    }
+
+    @Benchmark
+    public int toData() throws IOException {
+        bytes.reset();
+        event.toData(out);
+        return bytes.size();
+    }
+
+    @Benchmark
+    public LocationEvent fromData() throws IOException, ClassNotFoundException {
+        LocationEvent result = new LocationEvent();
+        result.fromData(new DataInputStream(new ByteArrayInputStream(serialized)));
+        return result;
+    }
+
+    @Benchmark
+    public int compactToData() throws IOException {
+        bytes.reset();
+        compactEvent.toData(out);
+        return bytes.size();
+    }
+
+    @Benchmark
+    public LocationEvent compactFromData() throws IOException, ClassNotFoundException {
+        CompactLocationEvent result = new CompactLocationEvent();
+        result.fromData(new DataInputStream(new ByteArrayInputStream(compactSerialized)));
+        return result;
+    }
+}
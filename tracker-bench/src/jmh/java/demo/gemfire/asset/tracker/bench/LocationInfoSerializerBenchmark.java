@@ -0,0 +1,52 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.bench;
+
+import demo.gemfire.asset.tracker.lib.LocationEvent;
+import demo.gemfire.asset.tracker.lib.LocationInfoSerializer;
+import demo.gemfire.asset.tracker.lib.ReusableLocationInfoSerializer;
+import org.apache.lucene.document.Document;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Lucene document built for every location written to the region.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocationInfoSerializerBenchmark {
+
+    private final LocationInfoSerializer serializer = new LocationInfoSerializer();
+    private final ReusableLocationInfoSerializer reusableSerializer = new ReusableLocationInfoSerializer();
+    private final LocationEvent event = new LocationEvent(34.0522, -118.2437, "123456");
+
+    @Benchmark
+    public Collection<Document> toDocuments() {
+        return serializer.toDocuments(null, event);
+    }
+
+    @Benchmark
+    public Collection<Document> reusableToDocuments() {
+        return reusableSerializer.toDocuments(null, event);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.bench;
+
+import demo.gemfire.asset.tracker.lib.LatLonPointHelper;
+import demo.gemfire.asset.tracker.lib.LatLonPointSerializer;
+import demo.gemfire.asset.tracker.lib.LocationEvent;
+import demo.gemfire.asset.tracker.lib.LocationInfoSerializer;
+import demo.gemfire.asset.tracker.lib.ReusableLocationInfoSerializer;
+import demo.gemfire.asset.tracker.lib.SpaitalHelper;
+import org.apache.geode.cache.lucene.LuceneSerializer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.geo.Polygon;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ways of indexing a location side by side - {@link LocationInfoSerializer} (PointVectorStrategy), the same
+ * fields from {@link ReusableLocationInfoSerializer} and {@link LatLonPointSerializer} (BKD).  Uses Lucene directly so the numbers are the index, not the GemFire plumbing.
+ * <p>
+ * The locations are spread over California with most of them clustered around LA and the Bay Area.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LuceneIndexBenchmark {
+
+    @Param({"pointVector", "reusablePointVector", "latLonPoint"})
+    private String indexType;
+    @Param({"100000", "1000000"})
+    private int size;
+
+    private LocationEvent[] events;
+    private LuceneSerializer<LocationEvent> serializer;
+    private DirectoryReader reader;
+    private IndexSearcher searcher;
+    private Query boxQuery;
+    private Query cellBoxQuery;
+    private Query circleQuery;
+    private Query polygonQuery;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        events = new LocationEvent[size];
+        for (int i = 0; i < size; i++) {
+            double lat;
+            double lng;
+            switch (i % 3) {
+                case 0:
+                    lat = 34.05 + random.nextGaussian() * 0.3;
+                    lng = -118.24 + random.nextGaussian() * 0.3;
+                    break;
+                case 1:
+                    lat = 37.77 + random.nextGaussian() * 0.3;
+                    lng = -122.42 + random.nextGaussian() * 0.3;
+                    break;
+                default:
+                    lat = 32.5 + random.nextDouble() * 9.5;
+                    lng = -124.4 + random.nextDouble() * 10.3;
+            }
+            events[i] = new LocationEvent(lat, lng, Integer.toString(i));
+        }
+        boolean latLonPoint = "latLonPoint".equals(indexType);
+        serializer = latLonPoint ? new LatLonPointSerializer()
+                : "reusablePointVector".equals(indexType) ? new ReusableLocationInfoSerializer() : new LocationInfoSerializer();
+
+        ByteBuffersDirectory directory = new ByteBuffersDirectory();
+        index(directory);
+        reader = DirectoryReader.open(directory);
+        searcher = new IndexSearcher(reader);
+
+        if (latLonPoint) {
+            boxQuery = LatLonPointHelper.findInRectangle(-118.5, 33.9, -118.1, 34.2);
+            circleQuery = LatLonPointHelper.findWithin(-118.24, 34.05, 10);
+            polygonQuery = LatLonPointHelper.findInPolygon(new Polygon(
+                    new double[]{33.9, 34.2, 34.3, 33.95, 33.9},
+                    new double[]{-118.5, -118.45, -118.1, -118.05, -118.5}));
+        } else {
+            boxQuery = SpaitalHelper.findLocationThatIsInsideTheRectangle(-118.5, 33.9, -118.1, 34.2);
+            circleQuery = SpaitalHelper.findWithin(-118.24, 34.05, 10);
+            cellBoxQuery = SpaitalHelper.findInRectangleByCells(-118.5, 33.9, -118.1, 34.2, true);
+            //PointVectorStrategy on SpatialContext.GEO can't do polygons
+            polygonQuery = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+    }
+
+    private int index(ByteBuffersDirectory directory) throws IOException {
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (LocationEvent event : events) {
+                for (Document document : serializer.toDocuments(null, event)) {
+                    writer.addDocument(document);
+                }
+            }
+            writer.commit();
+        }
+        return events.length;
+    }
+
+    /**
+     * Time to index every location once - divide the size by it for the indexing rate.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public int index() throws IOException {
+        return index(new ByteBuffersDirectory());
+    }
+
+    @Benchmark
+    public int boxQuery() throws IOException {
+        return searcher.count(boxQuery);
+    }
+
+    /**
+     * The box query answered from the geohash cells - only the point vector indexes have them.
+     */
+    @Benchmark
+    public int cellBoxQuery() throws IOException {
+        return cellBoxQuery == null ? -1 : searcher.count(cellBoxQuery);
+    }
+
+    @Benchmark
+    public int circleQuery() throws IOException {
+        return searcher.count(circleQuery);
+    }
+
+    /**
+     * Only means something for latLonPoint - the point vector rows just measure the benchmark overhead.
+     */
+    @Benchmark
+    public int polygonQuery() throws IOException {
+        return polygonQuery == null ? -1 : searcher.count(polygonQuery);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.bench;
+
+import demo.gemfire.asset.tracker.simulator.Roads;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picking the next road - by coordinate (spatial query) and by road id (road graph).
+ * <p>
+ * The roads are loaded from the files the simulator uses, set by the jmh task.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoadsBenchmark {
+
+    static final double NEXT_ROAD_RADIUS_MILES = 5;
+
+    private Roads roads;
+
+    @Setup
+    public void setup() throws Exception {
+        roads = loadRoads();
+    }
+
+    static Roads loadRoads() throws Exception {
+        return new Roads(new GeometryFactory(),
+                System.getProperty("demo.GeospatialSimulator.roadsFileName", "../tracker-simulator/data/Trknet2011.kmz"),
+                System.getProperty("demo.GeospatialSimulator.roadsSnapshotFileName", "../tracker-simulator/data/Trknet2011.roads"),
+                NEXT_ROAD_RADIUS_MILES);
+    }
+
+    @Benchmark
+    public Coordinate[] getNextRoad() {
+        int road = roads.getRandomRoadId();
+        int end = roads.getVertexCount(road) - 1;
+        return roads.getNextRoad(new Coordinate(roads.getLng(road, end), roads.getLat(road, end)));
+    }
+
+    @Benchmark
+    public int getNextRoadId() {
+        return roads.getNextRoadId(ThreadLocalRandom.current().nextInt(roads.getRoadCount()));
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.bench;
+
+import demo.gemfire.asset.tracker.lib.SpaitalHelper;
+import org.apache.lucene.search.Query;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the Lucene queries the web app sends for every request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpaitalHelperBenchmark {
+
+    @Benchmark
+    public Query findWithin() {
+        return SpaitalHelper.findWithin(-118.2437, 34.0522, 5);
+    }
+
+    @Benchmark
+    public Query queryIntersectingPoints() {
+        return SpaitalHelper.queryIntersectingPoints(-118.5, 33.9, -118.1, 34.2);
+    }
+
+    @Benchmark
+    public Query findLocationThatIsInsideTheRectangle() {
+        return SpaitalHelper.findLocationThatIsInsideTheRectangle(-118.5, 33.9, -118.1, 34.2);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.bench;
+
+import demo.gemfire.asset.tracker.simulator.BasicQuadTreeImpl;
+import demo.gemfire.asset.tracker.simulator.PackedSpatialIndex;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.util.GeometricShapeFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circle queries against the simulator spatial indexes.  The points are clustered the way trucks are around a city.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpatialIndexBenchmark {
+
+    private static final double LNG = -118.2437;
+    private static final double LAT = 34.0522;
+
+    @Param({"200000"})
+    private int points;
+    @Param({"0.01", "0.1", "0.5"})
+    private double radiusDegrees;
+
+    private final GeometryFactory geometryFactory = new GeometryFactory();
+    private BasicQuadTreeImpl quadTree;
+    private PackedSpatialIndex packedIndex;
+    private Geometry circle;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        int[] keys = new int[points];
+        double[] xs = new double[points];
+        double[] ys = new double[points];
+        quadTree = new BasicQuadTreeImpl();
+        for (int i = 0; i < points; i++) {
+            keys[i] = i;
+            xs[i] = LNG + random.nextGaussian() * 0.3;
+            ys[i] = LAT + random.nextGaussian() * 0.3;
+            quadTree.upsert(i, geometryFactory.createPoint(new Coordinate(xs[i], ys[i])));
+        }
+        packedIndex = new PackedSpatialIndex(geometryFactory, keys, xs, ys);
+        GeometricShapeFactory shapeFactory = new GeometricShapeFactory(geometryFactory);
+        shapeFactory.setCentre(new Coordinate(LNG, LAT));
+        shapeFactory.setSize(radiusDegrees * 2);
+        shapeFactory.setNumPoints(32);
+        circle = shapeFactory.createCircle();
+    }
+
+    @State(Scope.Thread)
+    public static class Results {
+        final IntArrayList keys = new IntArrayList();
+    }
+
+    @Benchmark
+    public Collection<Integer> quadTreeQuery() {
+        return quadTree.query(circle);
+    }
+
+    @Benchmark
+    public int packedQuery(Results results) {
+        results.keys.clear();
+        return packedIndex.query(circle, results.keys);
+    }
+
+    @Benchmark
+    public int packedWithinDistance(Results results) {
+        results.keys.clear();
+        return packedIndex.withinDistance(LNG, LAT, radiusDegrees * 111_195, results.keys);
+    }
+}
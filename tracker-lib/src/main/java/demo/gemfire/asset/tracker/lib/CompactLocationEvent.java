@@ -0,0 +1,148 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.lib;
+
+import org.apache.geode.DataSerializable;
+import org.apache.geode.DataSerializer;
+import org.apache.geode.Instantiator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A {@link LocationEvent} with a compact wire format.
+ * <p>
+ * Registered with an {@link Instantiator} so the id is written instead of the class name - the id fits in a byte so
+ * the header is two bytes.  After the header comes a flags byte, the location as two floats (or two int microdegrees
+ * when quantized) and the uid - as a varint when the uid is a plain decimal number like the simulator uses,
+ * otherwise as a string.
+ * <p>
+ * Opt in - the {@link LocationEvent} format doesn't change, so anything that only writes {@link LocationEvent}
+ * keeps working with the deployed tracker-lib.jar.  Call {@link #register()} once the client cache is up and the
+ * servers pick up the registration from the client.
+ */
+public class CompactLocationEvent extends LocationEvent {
+    public static final int INSTANTIATOR_ID = 76;
+    private static final int NUMERIC_UID = 1;
+    private static final int QUANTIZED = 2;
+    private static final double MICRODEGREES = 1_000_000;
+    private static volatile boolean quantize = false;
+
+    public CompactLocationEvent(double lat, double lng, String uid) {
+        super(lat, lng, uid);
+    }
+
+    public CompactLocationEvent() {
+
+    }
+
+    public static void register() {
+        Instantiator.register(new Instantiator(CompactLocationEvent.class, INSTANTIATOR_ID) {
+            @Override
+            public DataSerializable newInstance() {
+                return new CompactLocationEvent();
+            }
+        });
+    }
+
+    /**
+     * Write locations as int microdegrees instead of floats - every location lands on the same grid no matter where
+     * it is.  Readers handle both.
+     */
+    public static void setQuantize(boolean quantize) {
+        CompactLocationEvent.quantize = quantize;
+    }
+
+    @Override
+    public void toData(DataOutput dataOutput) throws IOException {
+        String uid = getUid();
+        boolean numericUid = isNumeric(uid);
+        boolean quantized = quantize;
+        dataOutput.writeByte((numericUid ? NUMERIC_UID : 0) | (quantized ? QUANTIZED : 0));
+        if (quantized) {
+            dataOutput.writeInt((int) Math.round(getLat() * MICRODEGREES));
+            dataOutput.writeInt((int) Math.round(getLng() * MICRODEGREES));
+        } else {
+            dataOutput.writeFloat(getLat());
+            dataOutput.writeFloat(getLng());
+        }
+        if (numericUid) {
+            writeVarLong(parse(uid), dataOutput);
+        } else {
+            DataSerializer.writeString(uid, dataOutput);
+        }
+    }
+
+    @Override
+    public void fromData(DataInput dataInput) throws IOException, ClassNotFoundException {
+        int flags = dataInput.readByte();
+        if ((flags & QUANTIZED) != 0) {
+            setLat((float) (dataInput.readInt() / MICRODEGREES));
+            setLng((float) (dataInput.readInt() / MICRODEGREES));
+        } else {
+            setLat(dataInput.readFloat());
+            setLng(dataInput.readFloat());
+        }
+        setUid((flags & NUMERIC_UID) != 0 ? Long.toString(readVarLong(dataInput)) : DataSerializer.readString(dataInput));
+        resetDelta();
+    }
+
+    //Only uids that come back the same from Long.toString - no sign, no leading zeros and no overflow.
+    static boolean isNumeric(String uid) {
+        int length = uid == null ? 0 : uid.length();
+        if (length == 0 || length > 18 || (length > 1 && uid.charAt(0) == '0')) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = uid.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long parse(String uid) {
+        long value = 0;
+        for (int i = 0; i < uid.length(); i++) {
+            value = value * 10 + (uid.charAt(i) - '0');
+        }
+        return value;
+    }
+
+    //7 bits at a time, low bits first, high bit set when more follow.
+    static void writeVarLong(long value, DataOutput out) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
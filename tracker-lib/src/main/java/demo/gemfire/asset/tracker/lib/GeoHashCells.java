@@ -0,0 +1,210 @@
+package demo.gemfire.asset.tracker.lib;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Geohash cells - a location is in one cell at every precision and each cell's hash is a prefix of the hashes of the
+ * cells inside it.  Indexing the hash at every precision turns "everything in this cell" into a single term lookup.
+ * <p>
+ * Encoding writes into a caller supplied buffer so indexing doesn't allocate.
+ */
+public class GeoHashCells {
+    /**
+     * Finest precision indexed - 7 characters is a cell of about 150 x 150 meters.
+     */
+    public static final int MAX_PRECISION = 7;
+    private static final byte[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".getBytes();
+    private static final int[] DECODE = new int['z' + 1];
+
+    static {
+        Arrays.fill(DECODE, -1);
+        for (int i = 0; i < BASE32.length; i++) {
+            DECODE[BASE32[i]] = i;
+        }
+    }
+
+    private GeoHashCells() {
+    }
+
+    /**
+     * Write the geohash of the location at the given precision into the buffer as ASCII.  Every shorter precision is
+     * a prefix of what was written.
+     */
+    public static void encode(double lat, double lng, int precision, byte[] into) {
+        int bits = precision * 5;
+        int lngBits = (bits + 1) / 2;
+        int latBits = bits / 2;
+        long x = cellIndex(lng + 180, 360, lngBits);
+        long y = cellIndex(lat + 90, 180, latBits);
+        long hash = interleave(x, lngBits, y, latBits);
+        for (int i = precision - 1; i >= 0; i--) {
+            into[i] = BASE32[(int) (hash & 31)];
+            hash >>>= 5;
+        }
+    }
+
+    public static String encode(double lat, double lng, int precision) {
+        byte[] bytes = new byte[precision];
+        encode(lat, lng, precision, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * The bounds of a cell as minLng, minLat, maxLng, maxLat.
+     */
+    public static void bounds(String hash, double[] into) {
+        double minLng = -180;
+        double maxLng = 180;
+        double minLat = -90;
+        double maxLat = 90;
+        boolean isLng = true;
+        for (int i = 0; i < hash.length(); i++) {
+            int value = DECODE[hash.charAt(i)];
+            if (value < 0) {
+                throw new IllegalArgumentException("Not a geohash: " + hash);
+            }
+            for (int bit = 4; bit >= 0; bit--) {
+                boolean set = ((value >> bit) & 1) != 0;
+                if (isLng) {
+                    double mid = (minLng + maxLng) / 2;
+                    if (set) {
+                        minLng = mid;
+                    } else {
+                        maxLng = mid;
+                    }
+                } else {
+                    double mid = (minLat + maxLat) / 2;
+                    if (set) {
+                        minLat = mid;
+                    } else {
+                        maxLat = mid;
+                    }
+                }
+                isLng = !isLng;
+            }
+        }
+        into[0] = minLng;
+        into[1] = minLat;
+        into[2] = maxLng;
+        into[3] = maxLat;
+    }
+
+    /**
+     * Cover a rectangle with cells.  Starts with the coarsest cells and splits the ones on the edge of the rectangle
+     * into their 32 children while the number of cells stays under maxCells and the precision under
+     * {@link #MAX_PRECISION}.
+     *
+     * @param interior filled with cells entirely inside the rectangle
+     * @param boundary filled with cells that are only partly inside the rectangle - their contents need checking
+     */
+    public static void cover(double minLng, double minLat, double maxLng, double maxLat, int maxCells,
+                             Collection<String> interior, Collection<String> boundary) {
+        cover(minLng, minLat, maxLng, maxLat, maxCells, (cellMinLng, cellMinLat, cellMaxLng, cellMaxLat) ->
+                cellMinLng >= minLng && cellMinLat >= minLat && cellMaxLng <= maxLng && cellMaxLat <= maxLat
+                        ? Relation.INSIDE : Relation.PARTLY_INSIDE, interior, boundary);
+    }
+
+    /**
+     * Cover a shape inside the rectangle with cells the same way - cells the shape says are outside are dropped, so
+     * what is left follows the shape and not its bounding rectangle.
+     */
+    public static void cover(double minLng, double minLat, double maxLng, double maxLat, int maxCells, Shape shape,
+                             Collection<String> interior, Collection<String> boundary) {
+        ArrayDeque<String> queue = new ArrayDeque<>();
+        int precision = 1;
+        //start at the finest precision that still only takes a few cells.
+        while (precision < MAX_PRECISION && countCells(minLng, minLat, maxLng, maxLat, precision + 1) <= 4) {
+            precision++;
+        }
+        addCells(minLng, minLat, maxLng, maxLat, precision, null, queue);
+
+        double[] cell = new double[4];
+        while (!queue.isEmpty()) {
+            String hash = queue.poll();
+            bounds(hash, cell);
+            Relation relation = shape.relate(cell[0], cell[1], cell[2], cell[3]);
+            if (relation == Relation.OUTSIDE) {
+                continue;
+            }
+            if (relation == Relation.INSIDE) {
+                interior.add(hash);
+            } else if (hash.length() < MAX_PRECISION
+                    && interior.size() + boundary.size() + queue.size() + 32 <= maxCells) {
+                addCells(Math.max(minLng, cell[0]), Math.max(minLat, cell[1]),
+                        Math.min(maxLng, cell[2]), Math.min(maxLat, cell[3]), hash.length() + 1, hash, queue);
+            } else {
+                boundary.add(hash);
+            }
+        }
+    }
+
+    private static long countCells(double minLng, double minLat, double maxLng, double maxLat, int precision) {
+        int bits = precision * 5;
+        int lngBits = (bits + 1) / 2;
+        int latBits = bits / 2;
+        long xs = cellIndex(maxLng + 180, 360, lngBits) - cellIndex(minLng + 180, 360, lngBits) + 1;
+        long ys = cellIndex(maxLat + 90, 180, latBits) - cellIndex(minLat + 90, 180, latBits) + 1;
+        return xs * ys;
+    }
+
+    //the cells at the precision that overlap the rectangle - only the ones under the parent when there is one.
+    private static void addCells(double minLng, double minLat, double maxLng, double maxLat, int precision,
+                                 String parent, Collection<String> into) {
+        int bits = precision * 5;
+        int lngBits = (bits + 1) / 2;
+        int latBits = bits / 2;
+        long minX = cellIndex(minLng + 180, 360, lngBits);
+        long maxX = cellIndex(maxLng + 180, 360, lngBits);
+        long minY = cellIndex(minLat + 90, 180, latBits);
+        long maxY = cellIndex(maxLat + 90, 180, latBits);
+        byte[] bytes = new byte[precision];
+        for (long y = minY; y <= maxY; y++) {
+            for (long x = minX; x <= maxX; x++) {
+                long hash = interleave(x, lngBits, y, latBits);
+                for (int i = precision - 1; i >= 0; i--) {
+                    bytes[i] = BASE32[(int) (hash & 31)];
+                    hash >>>= 5;
+                }
+                String cell = new String(bytes, StandardCharsets.US_ASCII);
+                if (parent == null || cell.startsWith(parent)) {
+                    into.add(cell);
+                }
+            }
+        }
+    }
+
+    private static long cellIndex(double offset, double range, int bits) {
+        long cells = 1L << bits;
+        long index = (long) (offset / range * cells);
+        return Math.max(0, Math.min(cells - 1, index));
+    }
+
+    public enum Relation {
+        INSIDE, PARTLY_INSIDE, OUTSIDE
+    }
+
+    /**
+     * Where a cell is relative to the shape being covered.
+     */
+    public interface Shape {
+        Relation relate(double minLng, double minLat, double maxLng, double maxLat);
+    }
+
+    //geohash bit order - longitude first then alternating, most significant bits first.
+    private static long interleave(long x, int lngBits, long y, int latBits) {
+        long hash = 0;
+        int total = lngBits + latBits;
+        for (int i = 0; i < total; i++) {
+            hash <<= 1;
+            if ((i & 1) == 0) {
+                hash |= (x >>> (lngBits - 1 - i / 2)) & 1;
+            } else {
+                hash |= (y >>> (latBits - 1 - i / 2)) & 1;
+            }
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,81 @@
+package demo.gemfire.asset.tracker.lib;
+
+import org.apache.geode.cache.lucene.LuceneQuery;
+import org.apache.geode.cache.lucene.LuceneQueryFactory;
+import org.apache.geode.cache.lucene.LuceneService;
+import org.apache.lucene.document.LatLonDocValuesField;
+import org.apache.lucene.document.LatLonPoint;
+import org.apache.lucene.geo.Polygon;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SortField;
+
+/**
+ * Queries for an index created with {@link LatLonPointSerializer} - the counterpart of {@link SpaitalHelper}.
+ */
+public class LatLonPointHelper {
+    public static final String LOCATION = "latLon";
+    private static final double METERS_IN_MILE = 1609.344;
+
+    /**
+     * Return a lucene query that finds all points within the given radius from the given point
+     */
+    public static Query findWithin(double longitude, double latitude, double radiusMiles) {
+        return LatLonPoint.newDistanceQuery(LOCATION, latitude, longitude, radiusMiles * METERS_IN_MILE);
+    }
+
+    /**
+     * Return a lucene query for the points within the given radius scored nearest first, so a query with a limit of k
+     * brings back the k nearest in the circle.  The score comes from the doc values and lets the search skip points
+     * farther away than the k it already has.
+     */
+    public static Query findNearest(double longitude, double latitude, double radiusMiles) {
+        double radiusMeters = radiusMiles * METERS_IN_MILE;
+        return new BooleanQuery.Builder()
+                .add(LatLonPoint.newDistanceQuery(LOCATION, latitude, longitude, radiusMeters), BooleanClause.Occur.FILTER)
+                .add(LatLonPoint.newDistanceFeatureQuery(LOCATION, 1, latitude, longitude, radiusMeters), BooleanClause.Occur.SHOULD)
+                .build();
+    }
+
+    /**
+     * Return a lucene query that finds all points inside the rectangle
+     */
+    public static Query findInRectangle(double minLong, double minLat, double maxLong, double maxLat) {
+        return LatLonPoint.newBoxQuery(LOCATION, minLat, maxLat, minLong, maxLong);
+    }
+
+    /**
+     * Return a lucene query that finds all points inside the polygons.  Each polygon is a closed ring - the first and
+     * last points are the same.
+     */
+    public static Query findInPolygon(Polygon... polygons) {
+        return LatLonPoint.newPolygonQuery(LOCATION, polygons);
+    }
+
+    /**
+     * Sort nearest first from the given point
+     */
+    public static SortField sortByDistance(double longitude, double latitude) {
+        return LatLonDocValuesField.newDistanceSort(LOCATION, latitude, longitude);
+    }
+
+    public static LuceneQuery<String, LocationEvent> findInRectangle(String indexName, String regionName, double minLng, double minLat, double maxLng, double maxLat, LuceneService luceneService) {
+        return findInRectangle(indexName, regionName, minLng, minLat, maxLng, maxLat, luceneService.createLuceneQueryFactory());
+    }
+
+    /**
+     * The nearest first - give the query factory a limit of k for the k nearest in the circle.
+     */
+    public static LuceneQuery<String, LocationEvent> findNearest(String indexName, String regionName, double longitude, double latitude, double radiusMiles, LuceneQueryFactory queryFactory) {
+        return queryFactory.create(indexName, regionName, index -> findNearest(longitude, latitude, radiusMiles));
+    }
+
+    /**
+     * The query factory can come with a limit and page size.  The provider is made here so the servers can
+     * deserialize it from tracker-lib.jar.
+     */
+    public static LuceneQuery<String, LocationEvent> findInRectangle(String indexName, String regionName, double minLng, double minLat, double maxLng, double maxLat, LuceneQueryFactory queryFactory) {
+        return queryFactory.create(indexName, regionName, index -> findInRectangle(minLng, minLat, maxLng, maxLat));
+    }
+}
@@ -0,0 +1,32 @@
+package demo.gemfire.asset.tracker.lib;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LatLonDocValuesField;
+import org.apache.lucene.document.LatLonPoint;
+import org.apache.lucene.document.TextField;
+
+import org.apache.geode.cache.lucene.LuceneIndex;
+import org.apache.geode.cache.lucene.LuceneSerializer;
+
+/**
+ * Indexes the location as a Lucene {@link LatLonPoint} (BKD tree) plus doc values for sorting by distance.  Query an
+ * index created with this serializer through {@link LatLonPointHelper}.
+ */
+public class LatLonPointSerializer implements LuceneSerializer<LocationEvent> {
+
+    @Override
+    public Collection<Document> toDocuments(LuceneIndex index, LocationEvent value) {
+
+        Document doc = new Document();
+        doc.add(new TextField("uid", value.getUid(), Field.Store.NO));
+        doc.add(new LatLonPoint(LatLonPointHelper.LOCATION, value.getLat(), value.getLng()));
+        doc.add(new LatLonDocValuesField(LatLonPointHelper.LOCATION, value.getLat(), value.getLng()));
+
+        return Collections.singleton(doc);
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.lib;
+
+import org.apache.geode.DataSerializable;
+import org.apache.geode.DataSerializer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A batch of locations as columns - a float array each for lat and lng and an int array of uids - instead of a
+ * {@link LocationEvent} object per location.  A location costs 12 bytes on the wire and in the heap of whoever reads
+ * the chunk.
+ * <p>
+ * Uids that aren't plain decimal numbers that fit an int are kept as strings on the side, only the chunks that have
+ * one pay for it.
+ */
+public class LocationChunk implements DataSerializable {
+    private int size;
+    private float[] lats;
+    private float[] lngs;
+    private int[] uids;
+    private String[] otherUids;
+
+    public LocationChunk(int capacity) {
+        lats = new float[capacity];
+        lngs = new float[capacity];
+        uids = new int[capacity];
+    }
+
+    public LocationChunk() {
+        this(0);
+    }
+
+    public void add(float lat, float lng, String uid) {
+        lats[size] = lat;
+        lngs[size] = lng;
+        int numericUid = parseUid(uid);
+        if (numericUid < 0) {
+            if (otherUids == null) {
+                otherUids = new String[lats.length];
+            }
+            otherUids[size] = uid;
+        }
+        uids[size] = numericUid;
+        size++;
+    }
+
+    public void add(LocationEvent locationEvent) {
+        add(locationEvent.getLat(), locationEvent.getLng(), locationEvent.getUid());
+    }
+
+    public boolean isFull() {
+        return size == lats.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public float getLat(int index) {
+        return lats[index];
+    }
+
+    public float getLng(int index) {
+        return lngs[index];
+    }
+
+    public String getUid(int index) {
+        int uid = uids[index];
+        return uid < 0 ? otherUids[index] : Integer.toString(uid);
+    }
+
+    @Override
+    public void toData(DataOutput dataOutput) throws IOException {
+        dataOutput.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            dataOutput.writeFloat(lats[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            dataOutput.writeFloat(lngs[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            dataOutput.writeInt(uids[i]);
+        }
+        dataOutput.writeBoolean(otherUids != null);
+        if (otherUids != null) {
+            for (int i = 0; i < size; i++) {
+                if (uids[i] < 0) {
+                    DataSerializer.writeString(otherUids[i], dataOutput);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void fromData(DataInput dataInput) throws IOException, ClassNotFoundException {
+        size = dataInput.readInt();
+        lats = new float[size];
+        lngs = new float[size];
+        uids = new int[size];
+        for (int i = 0; i < size; i++) {
+            lats[i] = dataInput.readFloat();
+        }
+        for (int i = 0; i < size; i++) {
+            lngs[i] = dataInput.readFloat();
+        }
+        for (int i = 0; i < size; i++) {
+            uids[i] = dataInput.readInt();
+        }
+        if (dataInput.readBoolean()) {
+            otherUids = new String[size];
+            for (int i = 0; i < size; i++) {
+                if (uids[i] < 0) {
+                    otherUids[i] = DataSerializer.readString(dataInput);
+                }
+            }
+        }
+    }
+
+    //-1 unless the uid comes back the same from Integer.toString.
+    private static int parseUid(String uid) {
+        int length = uid == null ? 0 : uid.length();
+        if (length == 0 || length > 9 || (length > 1 && uid.charAt(0) == '0')) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = uid.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
@@ -0,0 +1,136 @@
+package demo.gemfire.asset.tracker.lib;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.locationtech.spatial4j.distance.DistanceUtils;
+
+import java.io.IOException;
+
+/**
+ * Scores the documents a query matches by how close their point vector doc values are to a point - pivot / (pivot +
+ * distance), so 1 at the point and 0.5 at pivot away.  A query with a limit then brings back the nearest documents
+ * it matches, and only reads the doc values of those.
+ */
+class LocationDistanceScoreQuery extends Query {
+    private final Query query;
+    private final String xField;
+    private final String yField;
+    private final double x;
+    private final double y;
+    private final double pivotDegrees;
+
+    LocationDistanceScoreQuery(Query query, String xField, String yField, double x, double y, double pivotDegrees) {
+        this.query = query;
+        this.xField = xField;
+        this.yField = yField;
+        this.x = x;
+        this.y = y;
+        this.pivotDegrees = pivotDegrees;
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost) throws IOException {
+        Weight matches = searcher.createWeight(searcher.rewrite(query), ScoreMode.COMPLETE_NO_SCORES, 1);
+        return new Weight(this) {
+            @Override
+            public Scorer scorer(LeafReaderContext context) throws IOException {
+                Scorer scorer = matches.scorer(context);
+                if (scorer == null) {
+                    return null;
+                }
+                NumericDocValues xs = DocValues.getNumeric(context.reader(), xField);
+                NumericDocValues ys = DocValues.getNumeric(context.reader(), yField);
+                return new Scorer(this) {
+                    @Override
+                    public DocIdSetIterator iterator() {
+                        return scorer.iterator();
+                    }
+
+                    @Override
+                    public int docID() {
+                        return scorer.docID();
+                    }
+
+                    @Override
+                    public float score() throws IOException {
+                        int doc = scorer.docID();
+                        if (!xs.advanceExact(doc) || !ys.advanceExact(doc)) {
+                            return 0;
+                        }
+                        return boost * distanceScore(Double.longBitsToDouble(xs.longValue()), Double.longBitsToDouble(ys.longValue()));
+                    }
+
+                    @Override
+                    public float getMaxScore(int upTo) {
+                        return boost;
+                    }
+                };
+            }
+
+            @Override
+            public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+                Scorer scorer = scorer(context);
+                if (scorer == null || scorer.iterator().advance(doc) != doc) {
+                    return Explanation.noMatch("no match");
+                }
+                return Explanation.match(scorer.score(), "distance score " + pivotDegrees + " / (" + pivotDegrees + " + distance)");
+            }
+
+            @Override
+            public boolean isCacheable(LeafReaderContext context) {
+                return false;
+            }
+        };
+    }
+
+    private float distanceScore(double docX, double docY) {
+        double distance = DistanceUtils.toDegrees(DistanceUtils.distHaversineRAD(
+                Math.toRadians(y), Math.toRadians(x), Math.toRadians(docY), Math.toRadians(docX)));
+        return (float) (pivotDegrees / (pivotDegrees + distance));
+    }
+
+    @Override
+    public void visit(QueryVisitor visitor) {
+        query.visit(visitor.getSubVisitor(BooleanClause.Occur.MUST, this));
+    }
+
+    @Override
+    public String toString(String field) {
+        return "LocationDistanceScore(" + query.toString(field) + ", " + xField + "," + yField + ":" + x + "," + y + ")";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!sameClassAs(o)) {
+            return false;
+        }
+        LocationDistanceScoreQuery that = (LocationDistanceScoreQuery) o;
+        return query.equals(that.query) && xField.equals(that.xField) && yField.equals(that.yField)
+                && Double.compare(x, that.x) == 0 && Double.compare(y, that.y) == 0
+                && Double.compare(pivotDegrees, that.pivotDegrees) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = classHash();
+        result = 31 * result + query.hashCode();
+        result = 31 * result + xField.hashCode();
+        result = 31 * result + yField.hashCode();
+        result = 31 * result + Double.hashCode(x);
+        result = 31 * result + Double.hashCode(y);
+        return 31 * result + Double.hashCode(pivotDegrees);
+    }
+}
@@ -19,6 +19,8 @@ package demo.gemfire.asset.tracker.lib;
 
 import org.apache.geode.DataSerializable;
 import org.apache.geode.DataSerializer;
+import org.apache.geode.Delta;
+import org.apache.geode.InvalidDeltaException;
 import org.apache.geode.pdx.PdxReader;
 import org.apache.geode.pdx.PdxSerializable;
 import org.apache.geode.pdx.PdxWriter;
@@ -30,15 +32,21 @@ import java.io.IOException;
 /**
  * The primary data model for this project.
  * <p>
+ * Supports delta propagation - put the same instance again after changing the location and only the changed
+ * coordinates go to the servers and on to the redundant copy.  The uid never changes so it is never in a delta.
+ * <p>
  * Created by Charlie Black on 7/11/16.
  */
-public class LocationEvent implements DataSerializable {
+public class LocationEvent implements DataSerializable, Delta {
     public static final String LAT = "lat";
     public static final String LNG = "lng";
     public static final String UID = "uid";
+    private static final int LAT_CHANGED = 1;
+    private static final int LNG_CHANGED = 2;
     private float lat = (float) 0.0;
     private float lng = (float) 0.0;
     private String uid;
+    private transient int changed;
 
     public LocationEvent(float lat, float lng, String uid) {
         this.lat = lat;
@@ -62,6 +70,9 @@ public class LocationEvent implements DataSerializable {
     }
 
     public void setLat(float lat) {
+        if (this.lat != lat) {
+            changed |= LAT_CHANGED;
+        }
         this.lat = lat;
     }
 
@@ -70,6 +81,9 @@ public class LocationEvent implements DataSerializable {
     }
 
     public void setLng(float lng) {
+        if (this.lng != lng) {
+            changed |= LNG_CHANGED;
+        }
         this.lng = lng;
     }
 
@@ -95,4 +109,44 @@ public class LocationEvent implements DataSerializable {
         lng = DataSerializer.readFloat(dataInput);
         uid = DataSerializer.readString(dataInput);
     }
+
+    @Override
+    public boolean hasDelta() {
+        return changed != 0;
+    }
+
+    @Override
+    public void toDelta(DataOutput dataOutput) throws IOException {
+        int toSend = changed;
+        dataOutput.writeByte(toSend);
+        if ((toSend & LAT_CHANGED) != 0) {
+            dataOutput.writeFloat(lat);
+        }
+        if ((toSend & LNG_CHANGED) != 0) {
+            dataOutput.writeFloat(lng);
+        }
+        //sent - the next delta starts from here.
+        changed = 0;
+    }
+
+    @Override
+    public void fromDelta(DataInput dataInput) throws IOException, InvalidDeltaException {
+        int received = dataInput.readByte();
+        if ((received & ~(LAT_CHANGED | LNG_CHANGED)) != 0) {
+            throw new InvalidDeltaException("Unknown LocationEvent delta " + received);
+        }
+        if ((received & LAT_CHANGED) != 0) {
+            lat = dataInput.readFloat();
+        }
+        if ((received & LNG_CHANGED) != 0) {
+            lng = dataInput.readFloat();
+        }
+    }
+
+    /**
+     * Forget any changes - for subclasses that read themselves through the setters.
+     */
+    protected void resetDelta() {
+        changed = 0;
+    }
 }
@@ -0,0 +1,179 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.lib;
+
+import org.apache.geode.DataSerializable;
+import org.apache.geode.DataSerializer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Locations counted into a grid of cells - per cell the count, the sums of lat and lng for the centroid and one uid
+ * as a sample.
+ * <p>
+ * The cells line up with lng -180 and lat -90 rather than with the rectangle, so a cell covers the same ground
+ * however the view is panned.  Only the cells with something in them go on the wire.
+ */
+public class LocationGrid implements DataSerializable {
+    private double cellWidth;
+    private double cellHeight;
+    private long firstColumn;
+    private long firstRow;
+    private int columns;
+    private int rows;
+    private int[] counts;
+    private double[] sumLat;
+    private double[] sumLng;
+    private String[] samples;
+
+    public LocationGrid(double minLng, double minLat, double maxLng, double maxLat, double cellWidth, double cellHeight) {
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+        firstColumn = column(minLng);
+        firstRow = row(minLat);
+        columns = (int) (column(maxLng) - firstColumn + 1);
+        rows = (int) (row(maxLat) - firstRow + 1);
+        allocate();
+    }
+
+    public LocationGrid() {
+    }
+
+    /**
+     * How many cells a grid over the rectangle would have - check it before making one.
+     */
+    public static long cellCount(double minLng, double minLat, double maxLng, double maxLat, double cellWidth, double cellHeight) {
+        long columns = (long) Math.floor((maxLng + 180) / cellWidth) - (long) Math.floor((minLng + 180) / cellWidth) + 1;
+        long rows = (long) Math.floor((maxLat + 90) / cellHeight) - (long) Math.floor((minLat + 90) / cellHeight) + 1;
+        return columns * rows;
+    }
+
+    /**
+     * Count the location - the caller makes sure it is inside the rectangle the grid was made for.
+     */
+    public void add(float lat, float lng, String uid) {
+        int cell = (int) (row(lat) - firstRow) * columns + (int) (column(lng) - firstColumn);
+        if (counts[cell]++ == 0) {
+            samples[cell] = uid;
+        }
+        sumLat[cell] += lat;
+        sumLng[cell] += lng;
+    }
+
+    /**
+     * Add in the counts of a grid made with the same rectangle and cell size - on another member.
+     */
+    public void merge(LocationGrid other) {
+        for (int cell = 0; cell < counts.length; cell++) {
+            if (other.counts[cell] == 0) {
+                continue;
+            }
+            if (counts[cell] == 0) {
+                samples[cell] = other.samples[cell];
+            }
+            counts[cell] += other.counts[cell];
+            sumLat[cell] += other.sumLat[cell];
+            sumLng[cell] += other.sumLng[cell];
+        }
+    }
+
+    public int getCellCount() {
+        return counts.length;
+    }
+
+    public int getCount(int cell) {
+        return counts[cell];
+    }
+
+    public double getCentroidLat(int cell) {
+        return sumLat[cell] / counts[cell];
+    }
+
+    public double getCentroidLng(int cell) {
+        return sumLng[cell] / counts[cell];
+    }
+
+    public String getSample(int cell) {
+        return samples[cell];
+    }
+
+    @Override
+    public void toData(DataOutput dataOutput) throws IOException {
+        dataOutput.writeDouble(cellWidth);
+        dataOutput.writeDouble(cellHeight);
+        dataOutput.writeLong(firstColumn);
+        dataOutput.writeLong(firstRow);
+        dataOutput.writeInt(columns);
+        dataOutput.writeInt(rows);
+        int used = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                used++;
+            }
+        }
+        dataOutput.writeInt(used);
+        for (int cell = 0; cell < counts.length; cell++) {
+            if (counts[cell] > 0) {
+                dataOutput.writeInt(cell);
+                dataOutput.writeInt(counts[cell]);
+                dataOutput.writeDouble(sumLat[cell]);
+                dataOutput.writeDouble(sumLng[cell]);
+                DataSerializer.writeString(samples[cell], dataOutput);
+            }
+        }
+    }
+
+    @Override
+    public void fromData(DataInput dataInput) throws IOException, ClassNotFoundException {
+        cellWidth = dataInput.readDouble();
+        cellHeight = dataInput.readDouble();
+        firstColumn = dataInput.readLong();
+        firstRow = dataInput.readLong();
+        columns = dataInput.readInt();
+        rows = dataInput.readInt();
+        allocate();
+        int used = dataInput.readInt();
+        for (int i = 0; i < used; i++) {
+            int cell = dataInput.readInt();
+            counts[cell] = dataInput.readInt();
+            sumLat[cell] = dataInput.readDouble();
+            sumLng[cell] = dataInput.readDouble();
+            samples[cell] = DataSerializer.readString(dataInput);
+        }
+    }
+
+    private void allocate() {
+        int cells = columns * rows;
+        counts = new int[cells];
+        sumLat = new double[cells];
+        sumLng = new double[cells];
+        samples = new String[cells];
+    }
+
+    //clamped so a location on the far edge of the rectangle lands in the last cell and not one past it.
+    private long column(double lng) {
+        long column = (long) Math.floor((lng + 180) / cellWidth);
+        return columns == 0 ? column : Math.max(firstColumn, Math.min(firstColumn + columns - 1, column));
+    }
+
+    private long row(double lat) {
+        long row = (long) Math.floor((lat + 90) / cellHeight);
+        return rows == 0 ? row : Math.max(firstRow, Math.min(firstRow + rows - 1, row));
+    }
+}
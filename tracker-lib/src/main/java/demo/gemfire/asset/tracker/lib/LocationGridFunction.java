@@ -0,0 +1,74 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.lib;
+
+import org.apache.geode.cache.Region;
+import org.apache.geode.cache.execute.Function;
+import org.apache.geode.cache.execute.FunctionContext;
+import org.apache.geode.cache.execute.RegionFunctionContext;
+import org.apache.geode.cache.partition.PartitionRegionHelper;
+
+/**
+ * Counts the locations inside a rectangle into a {@link LocationGrid} on each member, so what comes back is one
+ * entry per cell with something in it however many locations there are.
+ * <p>
+ * Run it onRegion with a double[] of minLng, minLat, maxLng, maxLat, cellWidth, cellHeight and merge the grids the
+ * members send back.  Gets deployed with tracker-lib.jar.
+ */
+public class LocationGridFunction implements Function<double[]> {
+    public static final String ID = "LocationGrid";
+
+    @Override
+    public void execute(FunctionContext<double[]> context) {
+        double[] arguments = context.getArguments();
+        double minLng = arguments[0];
+        double minLat = arguments[1];
+        double maxLng = arguments[2];
+        double maxLat = arguments[3];
+        LocationGrid grid = new LocationGrid(minLng, minLat, maxLng, maxLat, arguments[4], arguments[5]);
+        Region<String, LocationEvent> localData = PartitionRegionHelper.getLocalDataForContext((RegionFunctionContext) context);
+        for (LocationEvent locationEvent : localData.values()) {
+            float lat = locationEvent.getLat();
+            float lng = locationEvent.getLng();
+            if (lng >= minLng && lng <= maxLng && lat >= minLat && lat <= maxLat) {
+                grid.add(lat, lng, locationEvent.getUid());
+            }
+        }
+        context.getResultSender().lastResult(grid);
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public boolean hasResult() {
+        return true;
+    }
+
+    @Override
+    public boolean optimizeForWrite() {
+        return false;
+    }
+
+    //a member's grid isn't merged until every member is done, so running it again is safe.
+    @Override
+    public boolean isHA() {
+        return true;
+    }
+}
@@ -0,0 +1,110 @@
+package demo.gemfire.asset.tracker.lib;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.ConstantScoreScorer;
+import org.apache.lucene.search.ConstantScoreWeight;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TwoPhaseIterator;
+import org.apache.lucene.search.Weight;
+
+import java.io.IOException;
+
+/**
+ * Checks the point vector doc values against a rectangle one document at a time.  Never leads - it is only meant to
+ * be a filter on a selective query like the boundary cells of a cover, where reading the doc values of the few
+ * documents that query matches is much cheaper than the point range math over every document.
+ */
+class LocationInRectangleQuery extends Query {
+    private final String xField;
+    private final String yField;
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+
+    LocationInRectangleQuery(String xField, String yField, double minX, double minY, double maxX, double maxY) {
+        this.xField = xField;
+        this.yField = yField;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost) {
+        return new ConstantScoreWeight(this, boost) {
+            @Override
+            public Scorer scorer(LeafReaderContext context) throws IOException {
+                NumericDocValues xs = DocValues.getNumeric(context.reader(), xField);
+                NumericDocValues ys = DocValues.getNumeric(context.reader(), yField);
+                TwoPhaseIterator iterator = new TwoPhaseIterator(xs) {
+                    @Override
+                    public boolean matches() throws IOException {
+                        double x = Double.longBitsToDouble(xs.longValue());
+                        if (x < minX || x > maxX || !ys.advanceExact(xs.docID())) {
+                            return false;
+                        }
+                        double y = Double.longBitsToDouble(ys.longValue());
+                        return y >= minY && y <= maxY;
+                    }
+
+                    @Override
+                    public float matchCost() {
+                        return 10;
+                    }
+                };
+                return new ConstantScoreScorer(this, score(), scoreMode, iterator);
+            }
+
+            @Override
+            public boolean isCacheable(LeafReaderContext context) {
+                return DocValues.isCacheable(context, xField, yField);
+            }
+        };
+    }
+
+    @Override
+    public void visit(QueryVisitor visitor) {
+        if (visitor.acceptField(xField) && visitor.acceptField(yField)) {
+            visitor.visitLeaf(this);
+        }
+    }
+
+    @Override
+    public String toString(String field) {
+        return "LocationInRectangle(" + xField + "," + yField + ":[" + minX + "," + minY + " TO " + maxX + "," + maxY + "])";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!sameClassAs(o)) {
+            return false;
+        }
+        LocationInRectangleQuery that = (LocationInRectangleQuery) o;
+        return xField.equals(that.xField) && yField.equals(that.yField)
+                && Double.compare(minX, that.minX) == 0 && Double.compare(minY, that.minY) == 0
+                && Double.compare(maxX, that.maxX) == 0 && Double.compare(maxY, that.maxY) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = classHash();
+        result = 31 * result + xField.hashCode();
+        result = 31 * result + yField.hashCode();
+        result = 31 * result + Double.hashCode(minX);
+        result = 31 * result + Double.hashCode(minY);
+        result = 31 * result + Double.hashCode(maxX);
+        return 31 * result + Double.hashCode(maxY);
+    }
+}
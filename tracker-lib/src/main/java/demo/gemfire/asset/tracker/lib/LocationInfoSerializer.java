@@ -24,6 +24,9 @@ public class LocationInfoSerializer implements LuceneSerializer<LocationEvent> {
         for (Field field : fields) {
             doc.add(field);
         }
+        for (Field field : SpaitalHelper.getCellFields(value.getLng(), value.getLat())) {
+            doc.add(field);
+        }
 
         return Collections.singleton(doc);
     }
@@ -0,0 +1,128 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.lib;
+
+import org.apache.geode.cache.Region;
+import org.apache.geode.cache.execute.Function;
+import org.apache.geode.cache.execute.FunctionContext;
+import org.apache.geode.cache.execute.RegionFunctionContext;
+import org.apache.geode.cache.execute.ResultSender;
+import org.apache.geode.cache.partition.PartitionRegionHelper;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Finds the locations inside a rectangle on each member and sends them back as {@link LocationChunk}s.
+ * <p>
+ * Run it onRegion - every member looks only at the buckets it was given, so each location comes back once.  The
+ * arguments are a double[] of minLng, minLat, maxLng, maxLat and optionally a uid to start after and a limit.  With a
+ * limit each member sends back only the first limit locations ordered by uid, so merging what the members send and
+ * taking the first limit again is a page - and the last uid of the page is where the next one starts.  Gets deployed
+ * with tracker-lib.jar.
+ */
+public class LocationsInRectangleFunction implements Function<Object[]> {
+    public static final String ID = "LocationsInRectangle";
+    //big enough that the per result overhead doesn't matter, small enough that the first chunk goes out quickly.
+    public static final int CHUNK_SIZE = 8192;
+
+    @Override
+    public void execute(FunctionContext<Object[]> context) {
+        Object[] arguments = context.getArguments();
+        double[] rectangle = (double[]) arguments[0];
+        String afterUid = arguments.length > 1 ? (String) arguments[1] : null;
+        int limit = arguments.length > 2 && arguments[2] != null ? (Integer) arguments[2] : 0;
+        double minLng = rectangle[0];
+        double minLat = rectangle[1];
+        double maxLng = rectangle[2];
+        double maxLat = rectangle[3];
+        Region<String, LocationEvent> localData = PartitionRegionHelper.getLocalDataForContext((RegionFunctionContext) context);
+        ResultSender<LocationChunk> resultSender = context.getResultSender();
+
+        LocationChunk chunk = new LocationChunk(CHUNK_SIZE);
+        if (limit <= 0 && afterUid == null) {
+            for (LocationEvent locationEvent : localData.values()) {
+                float lat = locationEvent.getLat();
+                float lng = locationEvent.getLng();
+                if (lng >= minLng && lng <= maxLng && lat >= minLat && lat <= maxLat) {
+                    chunk.add(lat, lng, locationEvent.getUid());
+                    if (chunk.isFull()) {
+                        resultSender.sendResult(chunk);
+                        chunk = new LocationChunk(CHUNK_SIZE);
+                    }
+                }
+            }
+        } else {
+            for (LocationEvent locationEvent : firstByUid(localData, minLng, minLat, maxLng, maxLat, afterUid, limit)) {
+                chunk.add(locationEvent);
+                if (chunk.isFull()) {
+                    resultSender.sendResult(chunk);
+                    chunk = new LocationChunk(CHUNK_SIZE);
+                }
+            }
+        }
+        resultSender.lastResult(chunk);
+    }
+
+    //keeps the limit smallest uids in a max heap so memory stays at the limit however many locations match.
+    private static List<LocationEvent> firstByUid(Region<String, LocationEvent> localData, double minLng, double minLat,
+                                                  double maxLng, double maxLat, String afterUid, int limit) {
+        Comparator<LocationEvent> byUid = Comparator.comparing(LocationEvent::getUid);
+        int capacity = limit > 0 ? limit : Integer.MAX_VALUE;
+        PriorityQueue<LocationEvent> first = new PriorityQueue<>(Math.min(capacity, CHUNK_SIZE), byUid.reversed());
+        for (LocationEvent locationEvent : localData.values()) {
+            float lat = locationEvent.getLat();
+            float lng = locationEvent.getLng();
+            if (lng < minLng || lng > maxLng || lat < minLat || lat > maxLat
+                    || (afterUid != null && locationEvent.getUid().compareTo(afterUid) <= 0)) {
+                continue;
+            }
+            if (first.size() < capacity) {
+                first.add(locationEvent);
+            } else if (byUid.compare(locationEvent, first.peek()) < 0) {
+                first.poll();
+                first.add(locationEvent);
+            }
+        }
+        List<LocationEvent> sorted = new ArrayList<>(first);
+        sorted.sort(byUid);
+        return sorted;
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public boolean hasResult() {
+        return true;
+    }
+
+    @Override
+    public boolean optimizeForWrite() {
+        return false;
+    }
+
+    //chunks already sent can't be taken back so a retry would send them twice.
+    @Override
+    public boolean isHA() {
+        return false;
+    }
+}
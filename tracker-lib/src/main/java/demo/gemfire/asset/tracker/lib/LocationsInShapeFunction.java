@@ -0,0 +1,121 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.lib;
+
+import org.apache.geode.cache.Region;
+import org.apache.geode.cache.execute.Function;
+import org.apache.geode.cache.execute.FunctionContext;
+import org.apache.geode.cache.execute.RegionFunctionContext;
+import org.apache.geode.cache.execute.ResultSender;
+import org.apache.geode.cache.partition.PartitionRegionHelper;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Finds the locations inside a geometry on each member and sends them back as {@link LocationChunk}s, the first
+ * limit after a uid in uid order - the same pages as {@link LocationsInRectangleFunction}.
+ * <p>
+ * Run it onRegion with the arguments WKB of the geometry, a uid to start after and a limit.  With a filter only those
+ * keys are looked at - the candidates from {@link ShapeHelper#findCandidates(byte[], boolean)} - otherwise everything
+ * the member has.  Each location is checked against the bounding box and then exactly with a
+ * {@link PreparedGeometry}, which indexes the edges once so a polygon with thousands of points costs little more
+ * per location than a box.  Gets deployed with tracker-lib.jar and the jts jar.
+ */
+public class LocationsInShapeFunction implements Function<Object[]> {
+    public static final String ID = "LocationsInShape";
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void execute(FunctionContext<Object[]> context) {
+        Object[] arguments = context.getArguments();
+        Geometry geometry = ShapeHelper.fromWkb((byte[]) arguments[0]);
+        String afterUid = (String) arguments[1];
+        int limit = arguments[2] != null ? (Integer) arguments[2] : Integer.MAX_VALUE;
+        RegionFunctionContext regionContext = (RegionFunctionContext) context;
+        Region<String, LocationEvent> localData = PartitionRegionHelper.getLocalDataForContext(regionContext);
+        Set<String> keys = (Set<String>) regionContext.getFilter();
+
+        Envelope envelope = geometry.getEnvelopeInternal();
+        PreparedGeometry prepared = PreparedGeometryFactory.prepare(geometry);
+        Comparator<LocationEvent> byUid = Comparator.comparing(LocationEvent::getUid);
+        PriorityQueue<LocationEvent> first = new PriorityQueue<>(byUid.reversed());
+        Iterable<LocationEvent> candidates = keys == null || keys.isEmpty() ? localData.values() : localData.getAll(keys).values();
+        for (LocationEvent locationEvent : candidates) {
+            //gone since the keys were found
+            if (locationEvent == null) {
+                continue;
+            }
+            float lat = locationEvent.getLat();
+            float lng = locationEvent.getLng();
+            if (!envelope.contains(lng, lat)
+                    || (afterUid != null && locationEvent.getUid().compareTo(afterUid) <= 0)
+                    || (first.size() >= limit && byUid.compare(locationEvent, first.peek()) >= 0)
+                    || !prepared.covers(GEOMETRY_FACTORY.createPoint(new Coordinate(lng, lat)))) {
+                continue;
+            }
+            if (first.size() >= limit) {
+                first.poll();
+            }
+            first.add(locationEvent);
+        }
+        List<LocationEvent> sorted = new ArrayList<>(first);
+        sorted.sort(byUid);
+
+        ResultSender<LocationChunk> resultSender = context.getResultSender();
+        LocationChunk chunk = new LocationChunk(Math.min(sorted.size(), LocationsInRectangleFunction.CHUNK_SIZE));
+        for (LocationEvent locationEvent : sorted) {
+            if (chunk.isFull()) {
+                resultSender.sendResult(chunk);
+                chunk = new LocationChunk(LocationsInRectangleFunction.CHUNK_SIZE);
+            }
+            chunk.add(locationEvent);
+        }
+        resultSender.lastResult(chunk);
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public boolean hasResult() {
+        return true;
+    }
+
+    @Override
+    public boolean optimizeForWrite() {
+        return false;
+    }
+
+    //chunks already sent can't be taken back so a retry would send them twice.
+    @Override
+    public boolean isHA() {
+        return false;
+    }
+}
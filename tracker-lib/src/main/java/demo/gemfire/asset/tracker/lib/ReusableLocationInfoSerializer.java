@@ -0,0 +1,58 @@
+package demo.gemfire.asset.tracker.lib;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.spatial.vector.PointVectorStrategy;
+import org.apache.lucene.util.BytesRef;
+
+import org.apache.geode.cache.lucene.LuceneIndex;
+import org.apache.geode.cache.lucene.LuceneSerializer;
+
+/**
+ * Indexes the same location and cell fields as {@link LocationInfoSerializer} without allocating per put.  Each thread keeps one
+ * document and sets the new values on its fields - the index writer is done with the document before
+ * {@link #toDocuments} is called again on the same thread.
+ * <p>
+ * The uid is indexed as a single {@link StringField} term since it is only ever matched exactly.
+ */
+public class ReusableLocationInfoSerializer implements LuceneSerializer<LocationEvent> {
+    private static final ThreadLocal<ReusableDocument> DOCUMENTS = ThreadLocal.withInitial(ReusableDocument::new);
+
+    @Override
+    public Collection<Document> toDocuments(LuceneIndex index, LocationEvent value) {
+        return DOCUMENTS.get().update(value);
+    }
+
+    private static class ReusableDocument {
+        private final StringField uid = new StringField("uid", "", Field.Store.NO);
+        private final Field[] location = SpaitalHelper.getIndexableFields(0, 0);
+        //the cell fields all read their term from this buffer, each one a different length prefix of it.
+        private final byte[] cell = new byte[GeoHashCells.MAX_PRECISION];
+        private final Collection<Document> documents;
+
+        ReusableDocument() {
+            Document doc = new Document();
+            doc.add(uid);
+            for (Field field : location) {
+                doc.add(field);
+            }
+            for (int precision = 1; precision <= GeoHashCells.MAX_PRECISION; precision++) {
+                doc.add(new StringField(SpaitalHelper.CELL, new BytesRef(cell, 0, precision), Field.Store.NO));
+            }
+            documents = Collections.singletonList(doc);
+        }
+
+        Collection<Document> update(LocationEvent value) {
+            uid.setStringValue(value.getUid());
+            for (Field field : location) {
+                field.setDoubleValue(field.name().endsWith(PointVectorStrategy.SUFFIX_X) ? value.getLng() : value.getLat());
+            }
+            GeoHashCells.encode(value.getLat(), value.getLng(), GeoHashCells.MAX_PRECISION, cell);
+            return documents;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package demo.gemfire.asset.tracker.lib;
+
+import org.apache.geode.cache.lucene.LuceneQueryProvider;
+import org.apache.lucene.geo.Polygon;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.util.BytesRef;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.geom.util.AffineTransformation;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
+import org.locationtech.jts.io.WKTReader;
+import org.locationtech.spatial4j.distance.DistanceUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.locationtech.spatial4j.distance.DistanceUtils.EARTH_MEAN_RADIUS_MI;
+
+/**
+ * Polygons and corridors as JTS geometries in lng / lat - x is the longitude.  A geometry travels to the servers as
+ * WKB, where it becomes the coarse index query from {@link #findCandidates(byte[], boolean)} and the exact test in
+ * {@link LocationsInShapeFunction}.
+ */
+public class ShapeHelper {
+    //a shape follows its edges with more cells than a rectangle needs.
+    public static final int MAX_CELLS = 256;
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
+    public static Geometry fromWkt(String wkt) throws ParseException {
+        return new WKTReader(GEOMETRY_FACTORY).read(wkt);
+    }
+
+    public static byte[] toWkb(Geometry geometry) {
+        return new WKBWriter().write(geometry);
+    }
+
+    public static Geometry fromWkb(byte[] wkb) {
+        try {
+            return new WKBReader(GEOMETRY_FACTORY).read(wkb);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("Not a geometry", e);
+        }
+    }
+
+    /**
+     * Return the area within the given distance of the geometry - a corridor around a line.  The buffer is done with
+     * the longitudes squeezed by the cosine of the middle latitude, which keeps it close to the distance in miles for
+     * shapes a few hundred miles across.
+     */
+    public static Geometry buffer(Geometry geometry, double miles) {
+        double squeeze = Math.cos(Math.toRadians(geometry.getEnvelopeInternal().centre().y));
+        AffineTransformation toLocal = AffineTransformation.scaleInstance(squeeze, 1);
+        Geometry local = toLocal.transform(geometry);
+        Geometry buffered = local.buffer(DistanceUtils.dist2Degrees(miles, EARTH_MEAN_RADIUS_MI));
+        return AffineTransformation.scaleInstance(1 / squeeze, 1).transform(buffered);
+    }
+
+    /**
+     * The provider for {@link #findCandidates(byte[], boolean)} - made here so the servers can deserialize it from
+     * tracker-lib.jar.
+     */
+    public static LuceneQueryProvider candidatesProvider(byte[] wkb, boolean latLonPoint) {
+        return index -> findCandidates(wkb, latLonPoint);
+    }
+
+    /**
+     * Return a lucene query for the points in the cells or polygons that cover the geometry - it can match a few
+     * points just outside, the exact test is left to {@link LocationsInShapeFunction}.
+     */
+    public static Query findCandidates(byte[] wkb, boolean latLonPoint) {
+        Geometry geometry = fromWkb(wkb);
+        if (latLonPoint) {
+            Polygon[] polygons = toPolygons(geometry);
+            return polygons.length == 0 ? new MatchNoDocsQuery() : LatLonPointHelper.findInPolygon(polygons);
+        }
+        List<String> interior = new ArrayList<>();
+        List<String> boundary = new ArrayList<>();
+        cover(geometry, MAX_CELLS, interior, boundary);
+        List<BytesRef> cells = new ArrayList<>(interior.size() + boundary.size());
+        for (String cell : interior) {
+            cells.add(new BytesRef(cell));
+        }
+        for (String cell : boundary) {
+            cells.add(new BytesRef(cell));
+        }
+        return cells.isEmpty() ? new MatchNoDocsQuery() : new TermInSetQuery(SpaitalHelper.CELL, cells);
+    }
+
+    /**
+     * Cover the geometry with geohash cells, see {@link GeoHashCells#cover}.
+     */
+    public static void cover(Geometry geometry, int maxCells, List<String> interior, List<String> boundary) {
+        Envelope envelope = geometry.getEnvelopeInternal();
+        if (envelope.isNull()) {
+            return;
+        }
+        PreparedGeometry prepared = PreparedGeometryFactory.prepare(geometry);
+        GeoHashCells.cover(envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(), envelope.getMaxY(), maxCells,
+                (minLng, minLat, maxLng, maxLat) -> {
+                    Geometry cell = GEOMETRY_FACTORY.toGeometry(new Envelope(minLng, maxLng, minLat, maxLat));
+                    return prepared.covers(cell) ? GeoHashCells.Relation.INSIDE
+                            : prepared.intersects(cell) ? GeoHashCells.Relation.PARTLY_INSIDE
+                            : GeoHashCells.Relation.OUTSIDE;
+                }, interior, boundary);
+    }
+
+    //lucene wants closed rings of lats and lngs - lines and points have no area and match nothing.
+    private static Polygon[] toPolygons(Geometry geometry) {
+        List<Polygon> polygons = new ArrayList<>();
+        for (int i = 0; i < geometry.getNumGeometries(); i++) {
+            Geometry part = geometry.getGeometryN(i);
+            if (part instanceof org.locationtech.jts.geom.Polygon && !part.isEmpty()) {
+                org.locationtech.jts.geom.Polygon polygon = (org.locationtech.jts.geom.Polygon) part;
+                Polygon[] holes = new Polygon[polygon.getNumInteriorRing()];
+                for (int hole = 0; hole < holes.length; hole++) {
+                    holes[hole] = toPolygon(polygon.getInteriorRingN(hole));
+                }
+                polygons.add(toPolygon(polygon.getExteriorRing(), holes));
+            }
+        }
+        return polygons.toArray(new Polygon[0]);
+    }
+
+    private static Polygon toPolygon(LinearRing ring, Polygon... holes) {
+        Coordinate[] coordinates = ring.getCoordinates();
+        double[] lats = new double[coordinates.length];
+        double[] lngs = new double[coordinates.length];
+        for (int i = 0; i < coordinates.length; i++) {
+            lats[i] = coordinates[i].y;
+            lngs[i] = coordinates[i].x;
+        }
+        return new Polygon(lats, lngs, holes);
+    }
+}
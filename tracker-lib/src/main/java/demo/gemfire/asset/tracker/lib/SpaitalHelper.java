@@ -3,9 +3,18 @@ package demo.gemfire.asset.tracker.lib;
 import static org.locationtech.spatial4j.distance.DistanceUtils.EARTH_MEAN_RADIUS_MI;
 
 import org.apache.geode.cache.lucene.LuceneQuery;
+import org.apache.geode.cache.lucene.LuceneQueryFactory;
 import org.apache.geode.cache.lucene.LuceneService;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.spatial.query.SpatialArgs;
 import org.apache.lucene.spatial.query.SpatialOperation;
 import org.apache.lucene.spatial.vector.PointVectorStrategy;
@@ -16,7 +25,13 @@ import org.locationtech.spatial4j.shape.Shape;
 import org.locationtech.spatial4j.shape.impl.GeoCircle;
 import org.locationtech.spatial4j.shape.impl.PointImpl;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class SpaitalHelper {
+    public static final String CELL = "geohash";
+    //enough cells to follow the edge of a viewport - every cell is a term seek so more isn't free.
+    public static final int DEFAULT_MAX_CELLS = 64;
     private static final SpatialContext CONTEXT = SpatialContext.GEO;
     private static final PointVectorStrategy STRATEGY =
             new PointVectorStrategy(CONTEXT, "location", PointVectorStrategy.DEFAULT_FIELDTYPE);
@@ -34,6 +49,25 @@ public class SpaitalHelper {
         return STRATEGY.makeQuery(args);
     }
 
+    /**
+     * Return a lucene query for the points within the given radius scored nearest first, so a query with a limit of k
+     * brings back the k nearest in the circle
+     */
+    public static Query findNearest(double longitude, double latitude, double radiusMiles) {
+        double radiusDEG = DistanceUtils.dist2Degrees(radiusMiles, EARTH_MEAN_RADIUS_MI);
+        return new LocationDistanceScoreQuery(findWithin(longitude, latitude, radiusMiles),
+                STRATEGY.getFieldName() + PointVectorStrategy.SUFFIX_X, STRATEGY.getFieldName() + PointVectorStrategy.SUFFIX_Y,
+                longitude, latitude, radiusDEG);
+    }
+
+    /**
+     * Return the great circle distance between two points in miles
+     */
+    public static double distanceMiles(double longitude1, double latitude1, double longitude2, double latitude2) {
+        return DistanceUtils.distHaversineRAD(Math.toRadians(latitude1), Math.toRadians(longitude1),
+                Math.toRadians(latitude2), Math.toRadians(longitude2)) * EARTH_MEAN_RADIUS_MI;
+    }
+
     /**
      * Return a list of fields that should be added to lucene document to index the given point
      */
@@ -42,6 +76,62 @@ public class SpaitalHelper {
         return STRATEGY.createIndexableFields(point);
     }
 
+    /**
+     * Return the geohash cell fields for the given point - one term per precision so any cell is a single term lookup
+     */
+    public static Field[] getCellFields(double longitude, double latitude) {
+        byte[] hash = new byte[GeoHashCells.MAX_PRECISION];
+        GeoHashCells.encode(latitude, longitude, GeoHashCells.MAX_PRECISION, hash);
+        Field[] fields = new Field[GeoHashCells.MAX_PRECISION];
+        for (int precision = 1; precision <= GeoHashCells.MAX_PRECISION; precision++) {
+            fields[precision - 1] = new StringField(CELL, new BytesRef(hash, 0, precision), Field.Store.NO);
+        }
+        return fields;
+    }
+
+    /**
+     * Return a lucene query for the points inside the rectangle answered with cell terms.  Cells inside the rectangle
+     * are plain term lookups, only the documents in the cells on the edge have their location checked - or none of
+     * them when exact is false, good enough for a coarse view that can take a few points just outside.
+     */
+    public static Query findInRectangleByCells(double minLong, double minLat, double maxLong, double maxLat, boolean exact) {
+        List<String> interior = new ArrayList<>();
+        List<String> boundary = new ArrayList<>();
+        GeoHashCells.cover(minLong, minLat, maxLong, maxLat, DEFAULT_MAX_CELLS, interior, boundary);
+
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        if (!interior.isEmpty()) {
+            builder.add(cellsQuery(interior), BooleanClause.Occur.SHOULD);
+        }
+        if (!boundary.isEmpty()) {
+            if (exact) {
+                builder.add(new BooleanQuery.Builder()
+                        .add(cellsQuery(boundary), BooleanClause.Occur.FILTER)
+                        .add(new LocationInRectangleQuery(STRATEGY.getFieldName() + PointVectorStrategy.SUFFIX_X,
+                                STRATEGY.getFieldName() + PointVectorStrategy.SUFFIX_Y, minLong, minLat, maxLong, maxLat), BooleanClause.Occur.FILTER)
+                        .build(), BooleanClause.Occur.SHOULD);
+            } else {
+                builder.add(cellsQuery(boundary), BooleanClause.Occur.SHOULD);
+            }
+        }
+        return interior.isEmpty() && boundary.isEmpty() ? new MatchNoDocsQuery() : builder.build();
+    }
+
+    /**
+     * Return a lucene query that finds all points in a geohash cell - a single term, so counting it is just its doc freq
+     */
+    public static Query findInCell(String geohash) {
+        return new TermQuery(new Term(CELL, geohash));
+    }
+
+    private static Query cellsQuery(List<String> cells) {
+        List<BytesRef> terms = new ArrayList<>(cells.size());
+        for (String cell : cells) {
+            terms.add(new BytesRef(cell));
+        }
+        return new TermInSetQuery(CELL, terms);
+    }
+
     private static Point createPoint(double longitude, double latitude) {
         return new PointImpl(longitude, latitude, CONTEXT);
     }
@@ -76,7 +166,30 @@ public class SpaitalHelper {
         return STRATEGY.makeQuery(args);
     }
 
+    public static LuceneQuery<String, LocationEvent> findInRectangleByCells(String indexName, String regionName, double minLng, double minLat, double maxLng, double maxLat, LuceneService luceneService) {
+        return findInRectangleByCells(indexName, regionName, minLng, minLat, maxLng, maxLat, luceneService.createLuceneQueryFactory());
+    }
+
+    /**
+     * The query factory can come with a limit and page size.  The provider is made here so the servers can
+     * deserialize it from tracker-lib.jar.
+     */
+    public static LuceneQuery<String, LocationEvent> findInRectangleByCells(String indexName, String regionName, double minLng, double minLat, double maxLng, double maxLat, LuceneQueryFactory queryFactory) {
+        return queryFactory.create(indexName, regionName, index -> findInRectangleByCells(minLng, minLat, maxLng, maxLat, true));
+    }
+
     public static LuceneQuery<String, LocationEvent> findInRectangle(String indexName, String regionName, double minLng, double minLat, double maxLng, double maxLat, LuceneService luceneService) {
-        return luceneService.createLuceneQueryFactory().create(indexName, regionName, index -> findLocationThatIsInsideTheRectangle(minLng, minLat, maxLng, maxLat));
+        return findInRectangle(indexName, regionName, minLng, minLat, maxLng, maxLat, luceneService.createLuceneQueryFactory());
+    }
+
+    /**
+     * The nearest first - give the query factory a limit of k for the k nearest in the circle.
+     */
+    public static LuceneQuery<String, LocationEvent> findNearest(String indexName, String regionName, double longitude, double latitude, double radiusMiles, LuceneQueryFactory queryFactory) {
+        return queryFactory.create(indexName, regionName, index -> findNearest(longitude, latitude, radiusMiles));
+    }
+
+    public static LuceneQuery<String, LocationEvent> findInRectangle(String indexName, String regionName, double minLng, double minLat, double maxLng, double maxLat, LuceneQueryFactory queryFactory) {
+        return queryFactory.create(indexName, regionName, index -> findLocationThatIsInsideTheRectangle(minLng, minLat, maxLng, maxLat));
     }
 }
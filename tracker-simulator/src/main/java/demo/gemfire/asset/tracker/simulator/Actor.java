@@ -42,15 +42,17 @@ public class Actor {
         }
     }
 
+    private static final int NO_EDGE = -1;
+
     private Roads roads;
     private int currentIndex = 0;
-    private Coordinate[] currentRoad;
-    private Coordinate[] nextRoad;
+    private int currentRoad;
+    private int nextEdge = NO_EDGE;
     private double milesPerMillisecond = 55.0 / MS_IN_HOUR;
     private long timeToAdvance = System.currentTimeMillis();
     private String uid;
 
-    public Actor(double mph, Roads roads, Coordinate[] currentRoad, String uid) {
+    public Actor(double mph, Roads roads, int currentRoad, String uid) {
         milesPerMillisecond = mph / MS_IN_HOUR;
         this.roads = roads;
         this.currentRoad = currentRoad;
@@ -66,43 +68,43 @@ public class Actor {
     }
 
     public synchronized Coordinate currentEvent() {
-        return getCurrentRoad()[currentIndex];
+        return new Coordinate(roads.getLng(currentRoad, currentIndex), roads.getLat(currentRoad, currentIndex));
     }
 
     public synchronized Coordinate nextEvent() {
         Coordinate result;
-        if (currentIndex + 1 >= getCurrentRoad().length) {
-            result = getNextRoad()[0];
+        if (currentIndex + 1 >= roads.getVertexCount(currentRoad)) {
+            int nextRoad = getNextRoad();
+            result = new Coordinate(roads.getLng(nextRoad, 0), roads.getLat(nextRoad, 0));
         } else {
-            result = getCurrentRoad()[currentIndex + 1];
+            result = new Coordinate(roads.getLng(currentRoad, currentIndex + 1), roads.getLat(currentRoad, currentIndex + 1));
         }
         return result;
     }
 
     public synchronized void advance() {
         currentIndex++;
-        if (currentIndex >= currentRoad.length) {
+        if (currentIndex >= roads.getVertexCount(currentRoad)) {
             currentIndex = 0;
             currentRoad = getNextRoad();
-            nextRoad = null;
+            nextEdge = NO_EDGE;
         }
         timeToAdvance = System.currentTimeMillis() + msToNextEvent();
     }
 
-    private Coordinate[] getNextRoad() {
-        if (nextRoad == null) {
-            Coordinate[] curr = getCurrentRoad();
-            nextRoad = roads.getNextRoad(curr[curr.length - 1]);
+    private int getNextRoad() {
+        return roads.getEdgeTarget(getNextEdge());
+    }
+
+    private int getNextEdge() {
+        if (nextEdge == NO_EDGE) {
+            nextEdge = roads.getNextEdge(currentRoad);
         }
-        return nextRoad;
+        return nextEdge;
     }
 
     public Coordinate[] getCurrentRoad() {
-        if (currentRoad == null) {
-            currentRoad = roads.getRandomRoad();
-            currentIndex = 0;
-        }
-        return currentRoad;
+        return roads.getRoad(currentRoad);
     }
 
     public long timeToAdvance() {
@@ -110,19 +112,21 @@ public class Actor {
     }
 
     private long msToNextEvent() {
-        Coordinate coordinate1 = currentEvent();
-        Coordinate coordinate2 = nextEvent();
-
-        double distanceInMiles = distanceInMiles(coordinate1.y, coordinate1.x, coordinate2.y, coordinate2.x);
+        double distanceInMiles;
+        if (currentIndex + 1 >= roads.getVertexCount(currentRoad)) {
+            distanceInMiles = roads.getEdgeMiles(currentRoad, getNextEdge());
+        } else {
+            distanceInMiles = roads.getSegmentMiles(currentRoad, currentIndex);
+        }
         //Calculates time required to ride a fixed distance in a given average speed. Formula: Time = Distance ÷ Speed
         return (int) (distanceInMiles / getMilesPerMillisecond());
     }
 
-    private double distanceInMiles(double lat1, double long1, double lat2, double long2) {
+    static double distanceInMiles(double lat1, double long1, double lat2, double long2) {
         return distanceInMeters(lat1, long1, lat2, long2) / METERS_IN_MILE;
     }
 
-    private double distanceInMeters(double lat1, double long1, double lat2, double long2) {
+    private static double distanceInMeters(double lat1, double long1, double lat2, double long2) {
         GeodesicData g = geod.Inverse(lat1, long1, lat2, long2);
         return g.s12;
     }
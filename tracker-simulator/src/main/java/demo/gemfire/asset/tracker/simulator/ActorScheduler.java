@@ -0,0 +1,43 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.simulator;
+
+import java.util.function.Consumer;
+
+/**
+ * Decides when each actor moves next.  The simulator threads belong to the scheduler - it calls back for every actor
+ * whose {@link Actor#timeToAdvance()} has passed and then re-schedules the actor for its next time to advance.
+ */
+public interface ActorScheduler {
+
+    /**
+     * Add a new actor.  Safe to call from any thread, before or after {@link #start(Consumer)}.
+     */
+    void add(Actor actor);
+
+    /**
+     * Start the simulator threads.
+     *
+     * @param onDue called with each actor that is due, the actor is expected to advance its time to advance.
+     */
+    void start(Consumer<Actor> onDue);
+
+    /**
+     * How far behind schedule the actors are firing.
+     */
+    SchedulingLag getLag();
+}
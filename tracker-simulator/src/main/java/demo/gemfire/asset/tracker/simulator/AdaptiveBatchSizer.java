@@ -0,0 +1,67 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.simulator;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Picks the putAll batch size with additive increase / multiplicative decrease (AIMD).
+ * <p>
+ * Every batch that comes back under the latency target while the in flight queue has room grows the batch size a
+ * little.  A slow batch or a full queue halves it.  Halving happens at most once per target latency interval so a
+ * burst of slow batches that were all sent before the first cut doesn't collapse the size to the minimum.
+ */
+public class AdaptiveBatchSizer {
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final int increment;
+    private final long targetLatencyNanos;
+    private final AtomicLong lastDecrease = new AtomicLong(System.nanoTime());
+    private volatile int batchSize;
+
+    public AdaptiveBatchSizer(int initialBatchSize, int minBatchSize, int maxBatchSize, int increment, long targetLatencyMs) {
+        this.minBatchSize = Math.max(1, minBatchSize);
+        this.maxBatchSize = Math.max(this.minBatchSize, maxBatchSize);
+        this.increment = Math.max(1, increment);
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMs);
+        this.batchSize = Math.min(this.maxBatchSize, Math.max(this.minBatchSize, initialBatchSize));
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Feed back how a batch did.
+     *
+     * @param latencyNanos how long the putAll took
+     * @param queueFull    true when every in flight slot was taken while the batch was sent
+     */
+    public void onBatchSent(long latencyNanos, boolean queueFull) {
+        if (latencyNanos > targetLatencyNanos || queueFull) {
+            long now = System.nanoTime();
+            long last = lastDecrease.get();
+            if (now - last >= targetLatencyNanos && lastDecrease.compareAndSet(last, now)) {
+                batchSize = Math.max(minBatchSize, batchSize / 2);
+            }
+        } else {
+            //racy on purpose - losing an increment now and then doesn't matter.
+            batchSize = Math.min(maxBatchSize, batchSize + increment);
+        }
+    }
+}
@@ -17,13 +17,15 @@
 package demo.gemfire.asset.tracker.simulator;
 
 import org.eclipse.collections.impl.map.mutable.UnifiedMap;
+import org.eclipse.collections.impl.set.mutable.primitive.IntHashSet;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
-import org.locationtech.jts.index.ItemVisitor;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.Lock;
@@ -32,6 +34,8 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * A geo spatial index based on a Quad Tree.  This implementation that allow fast removal of data via a key.
+ * <p>
+ * For data that never changes once loaded use {@link PackedSpatialIndex}, it doesn't lock.
  */
 /*
  *
@@ -41,7 +45,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  *
  * Created by Charlie Black on 6/23/16.
  */
-public class BasicQuadTreeImpl  {
+public class BasicQuadTreeImpl implements SpatialIndex {
 
     private final ReentrantReadWriteLock reentrantReadWriteLock = new ReentrantReadWriteLock();
     private final Lock readLock = reentrantReadWriteLock.readLock();
@@ -84,11 +88,18 @@ public class BasicQuadTreeImpl  {
         }
     }
 
-    public Collection query(Geometry geometry) {
+    @Override
+    public Collection<Integer> query(Geometry geometry) {
+        List<Integer> keys = new ArrayList<>();
+        queryKeys(geometry).forEach(keys::add);
+        return keys;
+    }
+
+    public IntHashSet queryKeys(Geometry geometry) {
         readLock.lock();
         try {
             IntersectsVisitor visitor = new IntersectsVisitor(geometry);
-            top.query(geometry.getEnvelopeInternal(), visitor);
+            top.query(geometry.getEnvelopeInternal(), visitor, false);
             return visitor.getResults();
         } finally {
             readLock.unlock();
@@ -182,18 +193,22 @@ public class BasicQuadTreeImpl  {
             return returnValue;
         }
 
-        public void query(Envelope queryEnvelope, ItemVisitor visitor) {
+        public void query(Envelope queryEnvelope, IntersectsVisitor visitor, boolean inside) {
+            //Once a quad is inside the query everything below it is too - no more tests needed.
+            inside = inside || visitor.covers(levelEnvelope);
             if (items != null && !items.isEmpty()) {
-                if (queryEnvelope.intersects(levelEnvelope)) {
+                if (inside) {
+                    items.keySet().forEach(visitor::add);
+                } else if (queryEnvelope.intersects(levelEnvelope)) {
                     //If the item doesn't interest with the Quad Envelope then it won't be in this level
                     items.entrySet().forEach(visitor::visitItem);
                 }
             }
             for (Quad quad : quads) {
                 if (quad != null) {
-                    if (quad.levelEnvelope.intersects(queryEnvelope)) {
+                    if (inside || quad.levelEnvelope.intersects(queryEnvelope)) {
                         //decend if the query envelop intersets.
-                        quad.query(queryEnvelope, visitor);
+                        quad.query(queryEnvelope, visitor, inside);
                     }
                 }
             }
@@ -21,19 +21,44 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
+ * Buffers puts and sends them to the wrapped map with putAll.
+ * <p>
+ * In write-behind mode puts are fire-and-forget: they never read the previous value from the wrapped map, repeated
+ * puts to a key that hasn't been sent yet are coalesced (last write wins) and the pending entries are spread over
+ * lock striped buffers so writers don't contend on one lock.  The number of batches in flight is bounded, so when
+ * the wrapped map can't keep up the writers block instead of piling work onto the executor.
+ * <p>
+ * A stripe has at most one batch in flight.  While it is being sent the stripe keeps filling, and whatever is there
+ * when the putAll comes back goes next, so an older batch can never land after a newer one and overwrite a key's
+ * latest value.
+ * <p>
+ * When a scheduler is set a partially filled batch is sent once its oldest entry is older than the timeout, so the
+ * timeout is a ceiling on how stale the wrapped map can get.  With an {@link AdaptiveBatchSizer} the batch size
+ * follows the measured putAll latency instead of staying at the configured value.
+ * <p>
+ * Pending entries are grouped by the bucket GemFire will route the key to (the same hash the partitioned region
+ * uses), so a key always lands in the same group and the groups are sent in parallel.  A group is a hash slice of
+ * the buckets, not the buckets of one server - the client has no public way to tell which member is primary for a
+ * bucket - so a putAll can still go to every server and GemFire splits it up from there.
+ * <p>
  * Created by Charlie Black on 5/2/16.
  */
 public class CachingPutAllMap implements ConcurrentMap, InitializingBean, BeanNameAware {
     private String beanName = "sendToGemfire";
     private Map wrappedMap;
     private HashMap bulkMap = new HashMap();
+    private long bulkMapSince;
 
     private final ReentrantReadWriteLock reentrantReadWriteLock = new ReentrantReadWriteLock();
     private final Lock readLock = reentrantReadWriteLock.readLock();
@@ -45,12 +70,238 @@ public class CachingPutAllMap implements ConcurrentMap, InitializingBean, BeanNa
     private ThreadPoolTaskScheduler scheduler;
     private boolean callerSends = true;
 
+    private boolean writeBehind = false;
+    private int stripeCount = 16;
+    private int maxInFlightBatches = 16;
+    private int totalNumBuckets = 113;
+    private Stripe[] stripes;
+    private Semaphore inFlight;
+    private AdaptiveBatchSizer batchSizer;
+
     public void setCallerSends(boolean callerSends) {
         this.callerSends = callerSends;
     }
 
     @Override
     public void afterPropertiesSet() throws Exception {
+        if (writeBehind) {
+            //round up to a power of two so the stripe can be picked with a mask.  More stripes than buckets is pointless.
+            int count = Integer.highestOneBit(Math.max(1, Math.min(stripeCount, totalNumBuckets) - 1)) << 1;
+            stripes = new Stripe[count];
+            for (int i = 0; i < count; i++) {
+                stripes[i] = new Stripe();
+            }
+            inFlight = new Semaphore(maxInFlightBatches);
+        }
+        if (scheduler != null && timeoutms > 0) {
+            scheduler.scheduleAtFixedRate(this::flushExpired, Duration.ofMillis(Math.max(1, timeoutms / 2)));
+        }
+    }
+
+    /**
+     * Fire-and-forget put.  The value is buffered and sent with the next batch, nothing is read back from the
+     * wrapped map.
+     */
+    public void write(Object key, Object value) {
+        if (!writeBehind) {
+            put(key, value);
+            return;
+        }
+        Stripe stripe = stripeFor(key);
+        HashMap batch = null;
+        stripe.lock.lock();
+        try {
+            if (stripe.entries.isEmpty()) {
+                stripe.since = System.nanoTime();
+            }
+            stripe.entries.put(key, value);
+            if (!stripe.sending && stripe.entries.size() >= currentBatchSize()) {
+                batch = take(stripe);
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+        if (batch != null) {
+            send(stripe, batch);
+        }
+    }
+
+    /**
+     * Send everything that is buffered and wait for the batches in flight to land.
+     */
+    public void flush() {
+        if (writeBehind) {
+            //one stripe at a time - wait for its batch in flight to land and send the rest from here.
+            for (Stripe stripe : stripes) {
+                HashMap batch = null;
+                stripe.lock.lock();
+                try {
+                    while (stripe.sending) {
+                        stripe.landed.awaitUninterruptibly();
+                    }
+                    if (!stripe.entries.isEmpty()) {
+                        batch = take(stripe);
+                    }
+                } finally {
+                    stripe.lock.unlock();
+                }
+                if (batch != null) {
+                    sendInOrder(stripe, batch, false);
+                }
+            }
+        } else {
+            push();
+        }
+    }
+
+    /**
+     * Send the batches that have been waiting longer than half the timeout.  This runs every half timeout so nothing
+     * waits longer than the timeout.
+     */
+    private void flushExpired() {
+        long now = System.nanoTime();
+        if (writeBehind) {
+            for (Stripe stripe : stripes) {
+                HashMap batch = null;
+                stripe.lock.lock();
+                try {
+                    //a stripe that is sending picks up its expired entries when the batch in flight lands.
+                    if (!stripe.sending && isExpired(stripe, now)) {
+                        batch = take(stripe);
+                    }
+                } finally {
+                    stripe.lock.unlock();
+                }
+                if (batch != null) {
+                    send(stripe, batch);
+                }
+            }
+        } else {
+            writeLock.lock();
+            try {
+                if (!bulkMap.isEmpty() && now - bulkMapSince >= maxAgeNanos()) {
+                    push();
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    private long maxAgeNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(1, timeoutms / 2));
+    }
+
+    private boolean isExpired(Stripe stripe, long now) {
+        return !stripe.entries.isEmpty() && now - stripe.since >= maxAgeNanos();
+    }
+
+    //Called with the stripe locked - the stripe is sending until the batch and whatever follows it have landed.
+    private HashMap take(Stripe stripe) {
+        HashMap batch = stripe.entries;
+        stripe.entries = new HashMap();
+        stripe.sending = true;
+        return batch;
+    }
+
+    //The next batch for a stripe whose batch just landed, or null when it has nothing due and stops sending.
+    private HashMap landed(Stripe stripe) {
+        stripe.lock.lock();
+        try {
+            if (stripe.entries.size() >= currentBatchSize() || isExpired(stripe, System.nanoTime())) {
+                return take(stripe);
+            }
+            stopSending(stripe);
+            return null;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    private void stopSending(Stripe stripe) {
+        stripe.lock.lock();
+        try {
+            stripe.sending = false;
+            stripe.landed.signalAll();
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    private int currentBatchSize() {
+        return batchSizer != null ? batchSizer.getBatchSize() : batchSize;
+    }
+
+    private void putAllAndMeasure(Map batch, boolean queueFull) {
+        long start = System.nanoTime();
+        wrappedMap.putAll(batch);
+        if (batchSizer != null) {
+            batchSizer.onBatchSent(System.nanoTime() - start, queueFull);
+        }
+    }
+
+    private Stripe stripeFor(Object key) {
+        return stripes[bucketId(key) & (stripes.length - 1)];
+    }
+
+    //Same routing the partitioned region does for keys without a PartitionResolver.
+    private int bucketId(Object key) {
+        return Math.abs(key.hashCode() % totalNumBuckets);
+    }
+
+    private HashMap[] groupByBucket(Map batch) {
+        HashMap[] groups = new HashMap[Math.max(1, Math.min(stripeCount, totalNumBuckets))];
+        batch.forEach((key, value) -> {
+            int group = bucketId(key) % groups.length;
+            if (groups[group] == null) {
+                groups[group] = new HashMap();
+            }
+            groups[group].put(key, value);
+        });
+        return groups;
+    }
+
+    private void send(Stripe stripe, HashMap batch) {
+        if (callerSends) {
+            sendInOrder(stripe, batch, false);
+        } else {
+            //Backpressure - block the writer until one of the batches in flight has been sent.
+            inFlight.acquireUninterruptibly();
+            boolean queueFull = inFlight.availablePermits() == 0;
+            try {
+                executor.execute(() -> {
+                    try {
+                        sendInOrder(stripe, batch, queueFull);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                inFlight.release();
+                stopSending(stripe);
+                throw e;
+            }
+        }
+    }
+
+    //The batch, then what filled up on the stripe while it was in flight - one putAll after the other.
+    private void sendInOrder(Stripe stripe, HashMap batch, boolean queueFull) {
+        try {
+            while (batch != null) {
+                putAllAndMeasure(batch, queueFull);
+                batch = landed(stripe);
+            }
+        } catch (RuntimeException e) {
+            stopSending(stripe);
+            throw e;
+        }
+    }
+
+    //Reads and conditional updates need to see the buffered writes so push them out first.
+    private void flushWriteBehind() {
+        if (writeBehind) {
+            flush();
+        }
     }
 
     private void push() {
@@ -69,15 +320,18 @@ public class CachingPutAllMap implements ConcurrentMap, InitializingBean, BeanNa
     }
 
     private void callerBlocksPush() {
-        wrappedMap.putAll(bulkMap);
+        putAllAndMeasure(bulkMap, false);
         bulkMap.clear();
     }
 
     private void asyncPush() {
-        final HashMap temp = bulkMap;
-        executor.execute(() -> {
-            wrappedMap.putAll(temp);
-        });
+        for (HashMap group : groupByBucket(bulkMap)) {
+            if (group != null) {
+                executor.execute(() -> {
+                    putAllAndMeasure(group, false);
+                });
+            }
+        }
         bulkMap = new HashMap();
     }
 
@@ -106,8 +360,32 @@ public class CachingPutAllMap implements ConcurrentMap, InitializingBean, BeanNa
         this.timeoutms = timeUnit.toMillis(timeout);
     }
 
+    public void setWriteBehind(boolean writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    public void setStripeCount(int stripeCount) {
+        this.stripeCount = stripeCount;
+    }
+
+    public void setMaxInFlightBatches(int maxInFlightBatches) {
+        this.maxInFlightBatches = maxInFlightBatches;
+    }
+
+    /**
+     * Has to match the total-num-buckets of the partitioned region for the batches to line up with the buckets.
+     */
+    public void setTotalNumBuckets(int totalNumBuckets) {
+        this.totalNumBuckets = totalNumBuckets;
+    }
+
+    public void setBatchSizer(AdaptiveBatchSizer batchSizer) {
+        this.batchSizer = batchSizer;
+    }
+
     @Override
     public int size() {
+        flushWriteBehind();
         readLock.lock();
         try {
             return keySet().size();
@@ -118,6 +396,7 @@ public class CachingPutAllMap implements ConcurrentMap, InitializingBean, BeanNa
 
     @Override
     public boolean isEmpty() {
+        flushWriteBehind();
         readLock.lock();
         try {
             return bulkMap.isEmpty() || wrappedMap.isEmpty();
@@ -128,6 +407,7 @@ public class CachingPutAllMap implements ConcurrentMap, InitializingBean, BeanNa
 
     @Override
     public boolean containsKey(Object key) {
+        flushWriteBehind();
         readLock.lock();
         try {
             return bulkMap.containsKey(key) || wrappedMap.containsKey(key);
@@ -138,6 +418,7 @@ public class CachingPutAllMap implements ConcurrentMap, InitializingBean, BeanNa
 
     @Override
     public boolean containsValue(Object value) {
+        flushWriteBehind();
         readLock.lock();
         try {
             return bulkMap.containsValue(value) || wrappedMap.containsValue(value);
@@ -148,6 +429,18 @@ public class CachingPutAllMap implements ConcurrentMap, InitializingBean, BeanNa
 
     @Override
     public Object get(Object key) {
+        if (writeBehind) {
+            Stripe stripe = stripeFor(key);
+            stripe.lock.lock();
+            try {
+                Object value = stripe.entries.get(key);
+                if (value != null) {
+                    return value;
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
         readLock.lock();
         try {
             Object value = bulkMap.get(key);
@@ -162,10 +455,17 @@ public class CachingPutAllMap implements ConcurrentMap, InitializingBean, BeanNa
 
     @Override
     public Object put(Object key, Object value) {
+        if (writeBehind) {
+            write(key, value);
+            return null;
+        }
         writeLock.lock();
         try {
+            if (bulkMap.isEmpty()) {
+                bulkMapSince = System.nanoTime();
+            }
             Object returnValue = bulkMap.put(key, value);
-            if (bulkMap.size() >= batchSize) {
+            if (bulkMap.size() >= currentBatchSize()) {
                 push();
             }
             if (returnValue == null) {
@@ -179,6 +479,7 @@ public class CachingPutAllMap implements ConcurrentMap, InitializingBean, BeanNa
 
     @Override
     public Object remove(Object key) {
+        flushWriteBehind();
         writeLock.lock();
         try {
             Object value = bulkMap.remove(key);
@@ -193,10 +494,17 @@ public class CachingPutAllMap implements ConcurrentMap, InitializingBean, BeanNa
 
     @Override
     public void putAll(Map m) {
+        if (writeBehind) {
+            m.forEach(this::write);
+            return;
+        }
         writeLock.lock();
         try {
+            if (bulkMap.isEmpty()) {
+                bulkMapSince = System.nanoTime();
+            }
             bulkMap.putAll(m);
-            if (bulkMap.size() >= batchSize) {
+            if (bulkMap.size() >= currentBatchSize()) {
                 push();
             }
         } finally {
@@ -208,6 +516,16 @@ public class CachingPutAllMap implements ConcurrentMap, InitializingBean, BeanNa
     public void clear() {
         writeLock.lock();
         try {
+            if (writeBehind) {
+                for (Stripe stripe : stripes) {
+                    stripe.lock.lock();
+                    try {
+                        stripe.entries.clear();
+                    } finally {
+                        stripe.lock.unlock();
+                    }
+                }
+            }
             bulkMap.clear();
             wrappedMap.clear();
         } finally {
@@ -217,6 +535,7 @@ public class CachingPutAllMap implements ConcurrentMap, InitializingBean, BeanNa
 
     @Override
     public Set keySet() {
+        flushWriteBehind();
         readLock.lock();
         try {
             Set keys = new HashSet(wrappedMap.keySet());
@@ -229,6 +548,7 @@ public class CachingPutAllMap implements ConcurrentMap, InitializingBean, BeanNa
 
     @Override
     public Collection values() {
+        flushWriteBehind();
         readLock.lock();
         try {
             HashMap map = new HashMap(wrappedMap);
@@ -241,6 +561,7 @@ public class CachingPutAllMap implements ConcurrentMap, InitializingBean, BeanNa
 
     @Override
     public Set<Entry> entrySet() {
+        flushWriteBehind();
         readLock.lock();
         try {
             HashMap map = new HashMap(wrappedMap);
@@ -254,6 +575,7 @@ public class CachingPutAllMap implements ConcurrentMap, InitializingBean, BeanNa
 
     @Override
     public Object putIfAbsent(Object key, Object value) {
+        flushWriteBehind();
         Object returnValue = null;
         writeLock.lock();
         try {
@@ -272,6 +594,7 @@ public class CachingPutAllMap implements ConcurrentMap, InitializingBean, BeanNa
 
     @Override
     public boolean remove(Object key, Object value) {
+        flushWriteBehind();
         writeLock.lock();
         try {
             if ((bulkMap.containsKey(key) && Objects.equals(bulkMap.get(key), value)) ||
@@ -289,6 +612,7 @@ public class CachingPutAllMap implements ConcurrentMap, InitializingBean, BeanNa
 
     @Override
     public boolean replace(Object key, Object oldValue, Object newValue) {
+        flushWriteBehind();
         writeLock.lock();
         try {
             if ((bulkMap.containsKey(key) && Objects.equals(bulkMap.get(key), oldValue)) ||
@@ -305,6 +629,7 @@ public class CachingPutAllMap implements ConcurrentMap, InitializingBean, BeanNa
 
     @Override
     public Object replace(Object key, Object value) {
+        flushWriteBehind();
         writeLock.lock();
         try {
             if (bulkMap.containsKey(key)) {
@@ -325,4 +650,12 @@ public class CachingPutAllMap implements ConcurrentMap, InitializingBean, BeanNa
     public void setBeanName(String name) {
         this.beanName = name;
     }
+
+    private static class Stripe {
+        private final Lock lock = new ReentrantLock();
+        private final Condition landed = lock.newCondition();
+        private HashMap entries = new HashMap();
+        private long since;
+        private boolean sending;
+    }
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.simulator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Runs {@link CompactActors} on timing wheels, one per simulator thread.
+ * <p>
+ * Actor n belongs to shard n % numberOfSimulators and is handle n / numberOfSimulators in that shard's wheel.  A shard
+ * picks up its new actors by watching the store's size, so adding actors doesn't need a queue either.
+ */
+public class CompactActorScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompactActorScheduler.class);
+
+    private final CompactActors actors;
+    private final int numberOfSimulators;
+    private final long tickMs;
+    private final SchedulingLag lag = new SchedulingLag();
+
+    public CompactActorScheduler(CompactActors actors, int numberOfSimulators, long tickMs) {
+        this.actors = actors;
+        this.numberOfSimulators = numberOfSimulators;
+        this.tickMs = tickMs;
+    }
+
+    /**
+     * Start the simulator threads.
+     *
+     * @param onDue called with each actor number that is due, it is expected to advance the actor.
+     */
+    public void start(IntConsumer onDue) {
+        for (int i = 0; i < numberOfSimulators; i++) {
+            Thread thread = new Thread(new Shard(i, onDue));
+            thread.setName("Simulator-" + i);
+            thread.start();
+        }
+    }
+
+    public SchedulingLag getLag() {
+        return lag;
+    }
+
+    private class Shard implements Runnable, TimingWheel.Expired {
+        private final int shard;
+        private final IntConsumer onDue;
+        private final TimingWheel wheel;
+        private int nextHandle;
+        private long now;
+
+        Shard(int shard, IntConsumer onDue) {
+            this.shard = shard;
+            this.onDue = onDue;
+            this.wheel = new TimingWheel(tickMs, System.currentTimeMillis(), actors.capacity() / numberOfSimulators + 1);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                int size = actors.size();
+                for (int actor = actorFor(nextHandle); actor < size; actor = actorFor(++nextHandle)) {
+                    wheel.schedule(nextHandle, actors.timeToAdvance(actor));
+                }
+                now = System.currentTimeMillis();
+                if (wheel.advance(now, this) == 0) {
+                    try {
+                        Thread.sleep(wheel.getTickMs());
+                    } catch (InterruptedException e) {
+                        logger.warn("Simulator thread interrupted", e);
+                        return;
+                    }
+                }
+            }
+        }
+
+        private int actorFor(int handle) {
+            return handle * numberOfSimulators + shard;
+        }
+
+        @Override
+        public void expired(int handle, long dueMs) {
+            int actor = actorFor(handle);
+            lag.record(now - dueMs);
+            try {
+                onDue.accept(actor);
+            } catch (Exception e) {
+                logger.error(e.getMessage(), e);
+            }
+            wheel.schedule(handle, actors.timeToAdvance(actor));
+        }
+    }
+}
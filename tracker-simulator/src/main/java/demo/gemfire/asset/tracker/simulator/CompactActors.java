@@ -0,0 +1,127 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.simulator;
+
+/**
+ * The same actors as {@link Actor} but stored as a struct of arrays indexed by actor number.
+ * <p>
+ * No object per actor: road, vertex, next road graph edge, speed and time to advance are primitive columns sized up front, so
+ * ten million actors are a handful of arrays instead of ten million objects for the GC to trace.  The actor number
+ * is the uid, it's turned into a string the first time an event is sent and that string is kept for the next ones.
+ * <p>
+ * Each actor must only be advanced by one thread at a time - the {@link CompactActorScheduler} shards guarantee that.
+ */
+public class CompactActors {
+    private static final int NONE = -1;
+
+    private final Roads roads;
+    private final int[] road;
+    private final int[] vertex;
+    private final int[] nextEdge;
+    private final float[] milesPerMillisecond;
+    private final long[] timeToAdvance;
+    private final String[] uids;
+    private volatile int size;
+
+    public CompactActors(Roads roads, int capacity) {
+        this.roads = roads;
+        road = new int[capacity];
+        vertex = new int[capacity];
+        nextEdge = new int[capacity];
+        milesPerMillisecond = new float[capacity];
+        timeToAdvance = new long[capacity];
+        uids = new String[capacity];
+    }
+
+    /**
+     * Add an actor on a random road.  Only one thread may add, the volatile size publishes the new actor to the
+     * simulator threads.
+     *
+     * @return the actor number
+     */
+    public int add(double mph) {
+        int actor = size;
+        road[actor] = roads.getRandomRoadId();
+        vertex[actor] = 0;
+        nextEdge[actor] = NONE;
+        milesPerMillisecond[actor] = (float) (mph / Actor.MS_IN_HOUR);
+        timeToAdvance[actor] = System.currentTimeMillis();
+        size = actor + 1;
+        return actor;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return road.length;
+    }
+
+    public long timeToAdvance(int actor) {
+        return timeToAdvance[actor];
+    }
+
+    public double getLat(int actor) {
+        return roads.getLat(road[actor], vertex[actor]);
+    }
+
+    public double getLng(int actor) {
+        return roads.getLng(road[actor], vertex[actor]);
+    }
+
+    public String getUid(int actor) {
+        String uid = uids[actor];
+        if (uid == null) {
+            uid = Integer.toString(actor);
+            uids[actor] = uid;
+        }
+        return uid;
+    }
+
+    public void advance(int actor) {
+        int currentRoad = road[actor];
+        int currentVertex = vertex[actor] + 1;
+        if (currentVertex >= roads.getVertexCount(currentRoad)) {
+            currentVertex = 0;
+            currentRoad = roads.getEdgeTarget(nextEdge(actor));
+            road[actor] = currentRoad;
+            nextEdge[actor] = NONE;
+        }
+        vertex[actor] = currentVertex;
+        timeToAdvance[actor] = System.currentTimeMillis() + msToNextEvent(actor);
+    }
+
+    private int nextEdge(int actor) {
+        if (nextEdge[actor] == NONE) {
+            nextEdge[actor] = roads.getNextEdge(road[actor]);
+        }
+        return nextEdge[actor];
+    }
+
+    private long msToNextEvent(int actor) {
+        int currentRoad = road[actor];
+        int currentVertex = vertex[actor];
+        double distanceInMiles;
+        if (currentVertex + 1 >= roads.getVertexCount(currentRoad)) {
+            distanceInMiles = roads.getEdgeMiles(currentRoad, nextEdge(actor));
+        } else {
+            distanceInMiles = roads.getSegmentMiles(currentRoad, currentVertex);
+        }
+        return (long) (distanceInMiles / milesPerMillisecond[actor]);
+    }
+}
@@ -20,6 +20,7 @@ import org.apache.geode.cache.Region;
 import org.apache.geode.cache.client.ClientCache;
 import org.apache.geode.cache.client.ClientCacheFactory;
 import org.apache.geode.cache.client.ClientRegionShortcut;
+import demo.gemfire.asset.tracker.lib.CompactLocationEvent;
 import demo.gemfire.asset.tracker.lib.LocationEvent;
 import demo.gemfire.asset.tracker.lib.ToolBox;
 import org.locationtech.jts.geom.Coordinate;
@@ -31,13 +32,16 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.builder.SpringApplicationBuilder;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.IOException;
-import java.util.Comparator;
+import java.time.Duration;
 import java.util.Date;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 
 
@@ -55,6 +59,10 @@ public class GeospatialSimulator implements InitializingBean {
     private int batchTimeOut;
     @Value("${demo.GeospatialSimulator.roadsFileName:data/Trknet2011.kmz}")
     private String roadsFileName;
+    @Value("${demo.GeospatialSimulator.roadsSnapshotFileName:data/Trknet2011.roads}")
+    private String roadsSnapshotFileName;
+    @Value("${demo.GeospatialSimulator.nextRoadRadiusMiles:5}")
+    private double nextRoadRadiusMiles;
     @Value("${demo.GeospatialSimulator.regionName:geoSpatialRegion}")
     private String geoSpatialRegionName;
     private CachingPutAllMap geoRegion;
@@ -67,46 +75,65 @@ public class GeospatialSimulator implements InitializingBean {
     private long newActorTimeout;
     @Value("${demo.GeospatialSimulator.locators:localhost[10334]}")
     private String locators;
+    @Value("${demo.GeospatialSimulator.writeBehind:true}")
+    private boolean writeBehind;
+    @Value("${demo.GeospatialSimulator.maxInFlightBatches:16}")
+    private int maxInFlightBatches;
+    @Value("${demo.GeospatialSimulator.totalNumBuckets:113}")
+    private int totalNumBuckets;
+    @Value("${demo.GeospatialSimulator.adaptiveBatchSize:true}")
+    private boolean adaptiveBatchSize;
+    @Value("${demo.GeospatialSimulator.minBatchSize:50}")
+    private int minBatchSize;
+    @Value("${demo.GeospatialSimulator.maxBatchSize:5000}")
+    private int maxBatchSize;
+    @Value("${demo.GeospatialSimulator.targetPutAllLatencyMs:50}")
+    private long targetPutAllLatencyMs;
 
+    @Value("${demo.GeospatialSimulator.scheduler:wheel}")
+    private String scheduler;
+    @Value("${demo.GeospatialSimulator.schedulerTickMs:10}")
+    private long schedulerTickMs;
+    @Value("${demo.GeospatialSimulator.statsIntervalSeconds:10}")
+    private long statsIntervalSeconds;
+    @Value("${demo.GeospatialSimulator.compactActors:false}")
+    private boolean compactActors;
+    @Value("${demo.GeospatialSimulator.cachedTravelTimes:true}")
+    private boolean cachedTravelTimes;
+    @Value("${demo.GeospatialSimulator.compactWireFormat:false}")
+    private boolean compactWireFormat;
+    @Value("${demo.GeospatialSimulator.quantizeLocations:false}")
+    private boolean quantizeLocations;
+    @Value("${demo.GeospatialSimulator.deltaPropagation:false}")
+    private boolean deltaPropagation;
+    @Value("${demo.GeospatialSimulator.deltaSenders:16}")
+    private int deltaSenders;
+
+    private ThreadPoolTaskScheduler taskScheduler;
+    private ThreadPoolTaskExecutor executor;
+    private Region region;
+    //one event per actor, updated in place so puts can send deltas.
+    private final ConcurrentHashMap<String, DeltaState> deltas = new ConcurrentHashMap<>();
+    //actors with a move waiting for its put - each is queued once, however often it moves before the put.
+    private final BlockingQueue<DeltaState> deltaQueue = new LinkedBlockingQueue<>();
     private GeometryFactory geometryFactory = new GeometryFactory();
 
     public void run() {
-        final PriorityBlockingQueue<Actor> priorityQueue = new PriorityBlockingQueue<>(numberOfActors, (Comparator<Actor>) (o1, o2) -> (int) (o1.timeToAdvance() - o2.timeToAdvance()));
+        if (compactActors) {
+            runCompact();
+            return;
+        }
+        final ActorScheduler actorScheduler = createActorScheduler();
 
         //Slam in a couple tracks to keep the simulators busy
         int initialCount = numberOfSimulators * 2;
         for (int i = 0; i < initialCount; i++) {
-            addActorToQueue(priorityQueue, i);
-        }
-
-        for (int i = 0; i < numberOfSimulators; i++) {
-            new Thread(() -> {
-                while (true) {
-                    Actor actor = priorityQueue.poll();
-                    long currentDelay = actor.timeToAdvance() - System.currentTimeMillis();
-                    if (currentDelay <= 0) {
-                        try {
-                            actor.advance();
-                            Coordinate coordinate = actor.currentEvent();
-
-                            LocationEvent locationEvent = new LocationEvent(coordinate.y, coordinate.x, actor.getUid());
-                            geoRegion.put(locationEvent.getUid(), locationEvent);
-                        } catch (Exception e) {
-                            logger.error(e.getMessage(), e);
-                        }
-                        priorityQueue.add(actor);
-                    } else {
-                        priorityQueue.add(actor);
-                        try {
-                            Thread.sleep(currentDelay);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }
-            }).start();
+            addActor(actorScheduler, i);
         }
 
+        actorScheduler.start(this::simulate);
+        reportStats(actorScheduler.getLag());
+
         for (int i = initialCount; i < numberOfActors; i++) {
             //Now slowly trickle in more actors until we get up to the number of requested actors.
             //if we don't trickle them in then they are clustered at various starting points.
@@ -115,38 +142,188 @@ public class GeospatialSimulator implements InitializingBean {
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
-            addActorToQueue(priorityQueue, i);
+            addActor(actorScheduler, i);
+            if(i %1000 == 0){
+                logger.info("Injected {} drivers @ {}", i, new Date());
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #run()} but with the actors held in a {@link CompactActors} store.
+     */
+    public void runCompact() {
+        final CompactActors actors = new CompactActors(roads, numberOfActors);
+        final CompactActorScheduler actorScheduler = new CompactActorScheduler(actors, numberOfSimulators, schedulerTickMs);
+
+        //Slam in a couple tracks to keep the simulators busy
+        int initialCount = numberOfSimulators * 2;
+        for (int i = 0; i < initialCount; i++) {
+            actors.add(Math.random() * 20 + 50);
+        }
+
+        actorScheduler.start(actor -> simulate(actors, actor));
+        reportStats(actorScheduler.getLag());
+
+        for (int i = initialCount; i < numberOfActors; i++) {
+            try {
+                Thread.sleep(newActorTimeout);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            actors.add(Math.random() * 20 + 50);
             if(i %1000 == 0){
                 logger.info("Injected {} drivers @ {}", i, new Date());
             }
         }
     }
 
-    private void addActorToQueue(PriorityBlockingQueue<Actor> priorityQueue, int i) {
+    private void reportStats(SchedulingLag lag) {
+        SimulatorCpuMeter cpuMeter = new SimulatorCpuMeter();
+        taskScheduler.scheduleAtFixedRate(() -> {
+            SchedulingLag.Snapshot snapshot = lag.snapshot();
+            logger.info("Scheduler {} cpuUsPerEvent={}", snapshot, String.format("%.2f", cpuMeter.cpuMicrosPerEvent(snapshot.getFired())));
+        }, Duration.ofSeconds(statsIntervalSeconds));
+    }
+
+    private ActorScheduler createActorScheduler() {
+        if ("priorityQueue".equalsIgnoreCase(scheduler)) {
+            return new PriorityQueueActorScheduler(numberOfActors, numberOfSimulators);
+        }
+        return new TimingWheelActorScheduler(numberOfActors, numberOfSimulators, schedulerTickMs);
+    }
+
+    private void simulate(Actor actor) {
+        try {
+            actor.advance();
+            Coordinate coordinate = actor.currentEvent();
+            write(actor.getUid(), coordinate.y, coordinate.x);
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    private void simulate(CompactActors actors, int actor) {
+        try {
+            actors.advance(actor);
+            write(actors.getUid(actor), actors.getLat(actor), actors.getLng(actor));
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    private void write(String uid, double lat, double lng) {
+        if (!deltaPropagation) {
+            //a new event each time - the write-behind buffer keeps a reference to it until its batch is sent.
+            geoRegion.write(uid, newLocationEvent(lat, lng, uid));
+            return;
+        }
+        //putAll never sends deltas, so updates skip the CachingPutAllMap and go out as single puts from the delta
+        // senders.  One queued put per actor sends the latest location - a second one would find no delta left and
+        // send the whole value.
+        DeltaState state = deltas.computeIfAbsent(uid, key -> new DeltaState(newLocationEvent(lat, lng, key)));
+        boolean queue;
+        synchronized (state) {
+            state.lat = (float) lat;
+            state.lng = (float) lng;
+            //a put in flight queues it again when it comes back.
+            queue = !state.moved && !state.sending;
+            state.moved = true;
+        }
+        if (queue) {
+            deltaQueue.add(state);
+        }
+    }
+
+    //The event is only touched by the sender putting it, so the simulator never waits on a put.
+    private void sendDeltas() {
+        while (true) {
+            DeltaState state;
+            try {
+                state = deltaQueue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            LocationEvent event = state.event;
+            synchronized (state) {
+                event.setLat(state.lat);
+                event.setLng(state.lng);
+                state.moved = false;
+                state.sending = true;
+            }
+            try {
+                region.put(event.getUid(), event);
+            } catch (Exception e) {
+                logger.error(e.getMessage(), e);
+            }
+            boolean queue;
+            synchronized (state) {
+                state.sending = false;
+                queue = state.moved;
+            }
+            if (queue) {
+                deltaQueue.add(state);
+            }
+        }
+    }
+
+    private LocationEvent newLocationEvent(double lat, double lng, String uid) {
+        return compactWireFormat ? new CompactLocationEvent(lat, lng, uid) : new LocationEvent(lat, lng, uid);
+    }
+
+    private void addActor(ActorScheduler actorScheduler, int i) {
         //Randomly have the tracks move between 50 to 70 MPH
-        priorityQueue.add(new Actor(Math.random() * 20 + 50, roads, roads.getRandomRoad(), Integer.toString(i)));
+        actorScheduler.add(new Actor(Math.random() * 20 + 50, roads, roads.getRandomRoadId(), Integer.toString(i)));
     }
 
     @Override
     public void afterPropertiesSet() throws Exception {
-        roads = new Roads(geometryFactory, roadsFileName);
+        roads = new Roads(geometryFactory, roadsFileName, roadsSnapshotFileName, nextRoadRadiusMiles);
+        roads.setUseCachedDistances(cachedTravelTimes);
         ClientCacheFactory clientCacheFactory = new ClientCacheFactory();
         ToolBox.configureDefaultClientPool(clientCacheFactory, locators);
         ClientCache clientCache = clientCacheFactory.create();
+        if (compactWireFormat) {
+            //registered after the cache is up so the registration goes to the servers too.
+            CompactLocationEvent.setQuantize(quantizeLocations);
+            CompactLocationEvent.register();
+        }
 
-        Region region = clientCache.createClientRegionFactory(ClientRegionShortcut.PROXY).create(geoSpatialRegionName);
+        region = clientCache.createClientRegionFactory(ClientRegionShortcut.PROXY).create(geoSpatialRegionName);
         geoRegion = new CachingPutAllMap();
         geoRegion.setCallerSends(false);
         geoRegion.setBatchSize(batchSize);
         geoRegion.setTimeout(batchTimeOut);
-        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        geoRegion.setWriteBehind(writeBehind);
+        geoRegion.setStripeCount(numberOfSimulators);
+        geoRegion.setMaxInFlightBatches(maxInFlightBatches);
+        geoRegion.setTotalNumBuckets(totalNumBuckets);
+        if (adaptiveBatchSize) {
+            geoRegion.setBatchSizer(new AdaptiveBatchSizer(batchSize, minBatchSize, maxBatchSize, minBatchSize, targetPutAllLatencyMs));
+        }
+        executor = new ThreadPoolTaskExecutor();
+        //The in flight limit keeps the queue from filling up, so size the core pool to send that many at once.
+        executor.setCorePoolSize(Math.min(maxInFlightBatches, 16));
         executor.setMaxPoolSize(16);
         executor.setQueueCapacity(256);
         executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
         executor.setThreadNamePrefix("SimulatorPool-");
         executor.initialize();
         geoRegion.setExecutor(executor);
+        taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.setThreadNamePrefix("SimulatorTimer-");
+        taskScheduler.initialize();
+        geoRegion.setScheduler(taskScheduler);
         geoRegion.setWrappedMap(region);
+        geoRegion.afterPropertiesSet();
+        if (deltaPropagation) {
+            for (int i = 0; i < deltaSenders; i++) {
+                Thread sender = new Thread(this::sendDeltas);
+                sender.setDaemon(true);
+                sender.setName("SimulatorDelta-" + i);
+                sender.start();
+            }
+        }
 
         Thread thread = new Thread(this::run);
         thread.setDaemon(false);
@@ -158,4 +335,17 @@ public class GeospatialSimulator implements InitializingBean {
         new SpringApplicationBuilder(GeospatialSimulator.class)
                 .run();
     }
+
+    private static class DeltaState {
+        private final LocationEvent event;
+        private float lat;
+        private float lng;
+        //moved since the last put started, and a put is in flight.
+        private boolean moved;
+        private boolean sending;
+
+        private DeltaState(LocationEvent event) {
+            this.event = event;
+        }
+    }
 }
@@ -16,35 +16,59 @@
 
 package demo.gemfire.asset.tracker.simulator;
 
-import org.eclipse.collections.impl.set.mutable.UnifiedSet;
+import org.eclipse.collections.impl.set.mutable.primitive.IntHashSet;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
 import org.locationtech.jts.index.ItemVisitor;
 
-import java.util.Collection;
 import java.util.Map.Entry;
-import java.util.Set;
 
 /**
+ * Collects the keys of the items that intersect the query geometry.  Items are checked against the envelope of the
+ * query first and only then with the exact (prepared) test.
+ * <p>
  * Created by Charlie Black on 7/1/16.
  */
 public class IntersectsVisitor implements ItemVisitor {
 
-    private Set<Object> results = new UnifiedSet<Object>();
-    private Geometry geometry;
+    private final IntHashSet results = new IntHashSet();
+    private final Geometry geometry;
+    private final Envelope envelope;
+    private final PreparedGeometry preparedGeometry;
 
     public IntersectsVisitor(Geometry geometry) {
         this.geometry = geometry;
+        this.envelope = geometry.getEnvelopeInternal();
+        this.preparedGeometry = PreparedGeometryFactory.prepare(geometry);
     }
 
 
-    public Collection<Object> getResults() {
+    public IntHashSet getResults() {
         return results;
     }
 
+    /**
+     * @return true if everything in the cell is inside the query geometry, so the items in it don't need testing.
+     */
+    public boolean covers(Envelope cell) {
+        return envelope.contains(cell)
+                && (geometry.isRectangle() || preparedGeometry.contains(geometry.getFactory().toGeometry(cell)));
+    }
+
+    /**
+     * Add a key without testing - the caller knows the item is inside the query geometry.
+     */
+    public void add(Integer key) {
+        results.add(key);
+    }
+
     @Override
     public void visitItem(Object item) {
-        Entry<Object, Geometry> entry = (Entry<Object, Geometry>) item;
-        if (geometry.intersects(entry.getValue())) {
+        Entry<Integer, Geometry> entry = (Entry<Integer, Geometry>) item;
+        Geometry value = entry.getValue();
+        if (envelope.intersects(value.getEnvelopeInternal()) && preparedGeometry.intersects(value)) {
             results.add(entry.getKey());
         }
     }
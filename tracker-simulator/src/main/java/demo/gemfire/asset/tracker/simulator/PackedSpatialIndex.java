@@ -0,0 +1,415 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.simulator;
+
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A read only geo spatial index of points for data that doesn't change once loaded, like the start of every road.
+ * <p>
+ * The points are sorted along a Z-order (Morton) curve and packed bottom up into an R-tree where every node holds
+ * {@link #NODE_SIZE} children.  Everything lives in a few primitive arrays that are never written after the
+ * constructor, so queries need no locks and any number of threads can query at once.
+ */
+/*
+ * Layout (same as flatbush) - the node boxes are stored level by level starting with the points themselves:
+ *
+ *   boxes    minX, minY, maxX, maxY for every node
+ *   children for a point the key, for a node the position of its first child
+ *
+ * The children of a node are the NODE_SIZE nodes starting at that position (or fewer at the end of a level).
+ */
+public class PackedSpatialIndex implements SpatialIndex {
+
+    static final int NODE_SIZE = 16;
+    static final double EARTH_RADIUS_IN_METERS = 6371008.8;
+    private final GeometryFactory geometryFactory;
+    private final double[] boxes;
+    private final int[] children;
+    private final int[] levelEnds;
+    private final int size;
+
+    /**
+     * @param keys the key for each point
+     * @param xs   the longitude of each point
+     * @param ys   the latitude of each point
+     */
+    public PackedSpatialIndex(GeometryFactory geometryFactory, int[] keys, double[] xs, double[] ys) {
+        this.geometryFactory = geometryFactory;
+        this.size = keys.length;
+
+        List<Integer> ends = new ArrayList<>();
+        int nodes = size;
+        int levelSize = size;
+        do {
+            ends.add(nodes);
+            levelSize = (levelSize + NODE_SIZE - 1) / NODE_SIZE;
+            nodes += levelSize;
+        } while (levelSize > 1);
+        levelEnds = ends.stream().mapToInt(Integer::intValue).toArray();
+        boxes = new double[nodes * 4];
+        children = new int[nodes];
+
+        sortAndStorePoints(keys, xs, ys);
+        for (int level = 0, start = 0; level < levelEnds.length; start = levelEnds[level], level++) {
+            int end = levelEnds[level];
+            int parent = end;
+            for (int child = start; child < end; child += NODE_SIZE, parent++) {
+                double minX = Double.POSITIVE_INFINITY;
+                double minY = Double.POSITIVE_INFINITY;
+                double maxX = Double.NEGATIVE_INFINITY;
+                double maxY = Double.NEGATIVE_INFINITY;
+                for (int i = child; i < Math.min(child + NODE_SIZE, end); i++) {
+                    minX = Math.min(minX, boxes[i * 4]);
+                    minY = Math.min(minY, boxes[i * 4 + 1]);
+                    maxX = Math.max(maxX, boxes[i * 4 + 2]);
+                    maxY = Math.max(maxY, boxes[i * 4 + 3]);
+                }
+                boxes[parent * 4] = minX;
+                boxes[parent * 4 + 1] = minY;
+                boxes[parent * 4 + 2] = maxX;
+                boxes[parent * 4 + 3] = maxY;
+                children[parent] = child;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Collection<Integer> query(Geometry geometry) {
+        IntArrayList results = new IntArrayList();
+        query(geometry, results);
+        List<Integer> keys = new ArrayList<>(results.size());
+        results.forEach(keys::add);
+        return keys;
+    }
+
+    /**
+     * Add the keys of the points that intersect the geometry to the results.  Doesn't allocate unless the results
+     * have to grow.
+     *
+     * @return the number of keys added
+     */
+    public int query(Geometry geometry, IntArrayList results) {
+        if (size == 0) {
+            return 0;
+        }
+        int before = results.size();
+        //inside the envelope of a rectangle is inside the rectangle - no need for the exact test.
+        Geometry exact = geometry.isRectangle() ? null : geometry;
+        search(children.length - 1, levelEnds.length - 1, geometry.getEnvelopeInternal(), exact, results);
+        return results.size() - before;
+    }
+
+    //level is the level of the children of the node, 0 being the points.
+    private void search(int node, int level, Envelope envelope, Geometry geometry, IntArrayList results) {
+        int start = children[node];
+        int end = Math.min(start + NODE_SIZE, levelEnds[level]);
+        for (int child = start; child < end; child++) {
+            int box = child * 4;
+            if (boxes[box] > envelope.getMaxX() || boxes[box + 1] > envelope.getMaxY()
+                    || boxes[box + 2] < envelope.getMinX() || boxes[box + 3] < envelope.getMinY()) {
+                continue;
+            }
+            if (level > 0) {
+                search(child, level - 1, envelope, geometry, results);
+            } else if (geometry == null || intersects(geometry, boxes[box], boxes[box + 1])) {
+                results.add(children[child]);
+            }
+        }
+    }
+
+    /**
+     * Add the keys of the points within the given distance of x, y to the results.  Distances are great circle
+     * distances and a circle that crosses 180 / -180 is searched on both sides.
+     *
+     * @return the number of keys added
+     */
+    public int withinDistance(double x, double y, double meters, IntArrayList results) {
+        if (size == 0) {
+            return 0;
+        }
+        int before = results.size();
+        double radians = meters / EARTH_RADIUS_IN_METERS;
+        double dLat = Math.toDegrees(radians);
+        double cosLat = Math.cos(Math.toRadians(y));
+        double dLng = cosLat > 1e-12 ? Math.min(180, Math.toDegrees(Math.asin(Math.min(1, Math.sin(radians) / cosLat)))) : 180;
+        if (Math.abs(y) + dLat >= 90) {
+            //the circle covers a pole so every longitude is in range.
+            dLng = 180;
+        }
+        double maxHaversine = haversine(meters);
+        int root = children.length - 1;
+        int top = levelEnds.length - 1;
+        searchWithin(root, top, x - dLng, y - dLat, x + dLng, y + dLat, x, y, maxHaversine, results);
+        if (dLng < 180 && x - dLng < -180) {
+            searchWithin(root, top, x - dLng + 360, y - dLat, 180, y + dLat, x, y, maxHaversine, results);
+        } else if (dLng < 180 && x + dLng > 180) {
+            searchWithin(root, top, -180, y - dLat, x + dLng - 360, y + dLat, x, y, maxHaversine, results);
+        }
+        return results.size() - before;
+    }
+
+    private void searchWithin(int node, int level, double minX, double minY, double maxX, double maxY,
+                              double x, double y, double maxHaversine, IntArrayList results) {
+        int start = children[node];
+        int end = Math.min(start + NODE_SIZE, levelEnds[level]);
+        for (int child = start; child < end; child++) {
+            int box = child * 4;
+            if (boxes[box] > maxX || boxes[box + 1] > maxY || boxes[box + 2] < minX || boxes[box + 3] < minY) {
+                continue;
+            }
+            if (level > 0) {
+                searchWithin(child, level - 1, minX, minY, maxX, maxY, x, y, maxHaversine, results);
+            } else if (haversine(x, y, boxes[box], boxes[box + 1]) <= maxHaversine) {
+                results.add(children[child]);
+            }
+        }
+    }
+
+    /**
+     * Add the keys of the k points closest to x, y to the results, closest first.
+     * <p>
+     * Best first search - nodes are visited in order of their distance from x, y and a point that comes off the
+     * queue is closer than anything left, so the search stops after k points.
+     *
+     * @return the number of keys added
+     */
+    public int nearest(double x, double y, int k, IntArrayList results) {
+        if (size == 0 || k <= 0) {
+            return 0;
+        }
+        int before = results.size();
+        NodeQueue queue = new NodeQueue();
+        int node = children.length - 1;
+        int level = levelEnds.length - 1;
+        while (true) {
+            int start = children[node];
+            int end = Math.min(start + NODE_SIZE, levelEnds[level]);
+            for (int child = start; child < end; child++) {
+                queue.push(child, boxDistance(child, x, y));
+            }
+            while (!queue.isEmpty() && queue.peek() < size) {
+                results.add(children[queue.pop()]);
+                if (results.size() - before == k) {
+                    return k;
+                }
+            }
+            if (queue.isEmpty()) {
+                return results.size() - before;
+            }
+            node = queue.pop();
+            level = levelOf(node) - 1;
+        }
+    }
+
+    private int levelOf(int node) {
+        int level = 0;
+        while (node >= levelEnds[level]) {
+            level++;
+        }
+        return level;
+    }
+
+    /*
+     * Lower bound of the haversine from x, y to anything in the box.  The closest point is on the nearest
+     * meridian edge of the box at the latitude where that meridian passes closest to x, y.
+     */
+    private double boxDistance(int node, double x, double y) {
+        int box = node * 4;
+        double minX = boxes[box];
+        double minY = boxes[box + 1];
+        double maxX = boxes[box + 2];
+        double maxY = boxes[box + 3];
+        if (x >= minX && x <= maxX) {
+            return y < minY ? haversine(x, y, x, minY) : y > maxY ? haversine(x, y, x, maxY) : 0;
+        }
+        double edge = x < minX ? minX : maxX;
+        double dLng = Math.toRadians(edge - x);
+        double closestLat = Math.cos(dLng) <= 0 ? (y >= 0 ? 90 : -90)
+                : Math.toDegrees(Math.atan(Math.tan(Math.toRadians(y)) / Math.cos(dLng)));
+        return haversine(x, y, edge, Math.max(minY, Math.min(maxY, closestLat)));
+    }
+
+    /**
+     * The haversine of the central angle between two points - ordered the same way as the distance, without the
+     * asin and sqrt.
+     */
+    static double haversine(double x1, double y1, double x2, double y2) {
+        double sinLat = Math.sin(Math.toRadians(y2 - y1) / 2);
+        double sinLng = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return sinLat * sinLat + Math.cos(Math.toRadians(y1)) * Math.cos(Math.toRadians(y2)) * sinLng * sinLng;
+    }
+
+    static double haversine(double meters) {
+        double sin = Math.sin(Math.min(Math.PI, meters / EARTH_RADIUS_IN_METERS) / 2);
+        return sin * sin;
+    }
+
+    static double distanceInMeters(double x1, double y1, double x2, double y2) {
+        return 2 * EARTH_RADIUS_IN_METERS * Math.asin(Math.sqrt(Math.min(1, haversine(x1, y1, x2, y2))));
+    }
+
+    /**
+     * Exact test of a point that is known to be inside the envelope of the geometry.
+     */
+    private boolean intersects(Geometry geometry, double x, double y) {
+        if (geometry instanceof Polygon) {
+            Polygon polygon = (Polygon) geometry;
+            if (!inRing(polygon.getExteriorRing().getCoordinateSequence(), x, y)) {
+                return false;
+            }
+            for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                if (inRing(polygon.getInteriorRingN(i).getCoordinateSequence(), x, y)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return geometry.intersects(geometryFactory.createPoint(new Coordinate(x, y)));
+    }
+
+    //Ray crossing test - counts the edges crossed going right from the point.
+    private static boolean inRing(CoordinateSequence ring, double x, double y) {
+        boolean inside = false;
+        int n = ring.size();
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            double xi = ring.getX(i);
+            double yi = ring.getY(i);
+            double xj = ring.getX(j);
+            double yj = ring.getY(j);
+            if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    private void sortAndStorePoints(int[] keys, double[] xs, double[] ys) {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        double scaleX = maxX > minX ? 0x7FFF / (maxX - minX) : 0;
+        double scaleY = maxY > minY ? 0x7FFF / (maxY - minY) : 0;
+
+        //Morton code in the high 32 bits, position in the low 32 bits so a plain sort orders the points.
+        long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            int x = (int) ((xs[i] - minX) * scaleX);
+            int y = (int) ((ys[i] - minY) * scaleY);
+            order[i] = (interleave(x) | (interleave(y) << 1)) << 32 | i;
+        }
+        Arrays.sort(order);
+        for (int i = 0; i < size; i++) {
+            int from = (int) order[i];
+            boxes[i * 4] = xs[from];
+            boxes[i * 4 + 1] = ys[from];
+            boxes[i * 4 + 2] = xs[from];
+            boxes[i * 4 + 3] = ys[from];
+            children[i] = keys[from];
+        }
+    }
+
+    //Spread the low 15 bits out to every other bit.
+    private static long interleave(int value) {
+        long x = value & 0x7FFF;
+        x = (x | (x << 8)) & 0x00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0FL;
+        x = (x | (x << 2)) & 0x33333333L;
+        x = (x | (x << 1)) & 0x55555555L;
+        return x;
+    }
+
+    //Binary min heap of nodes keyed by distance, kept in primitive arrays.
+    private static class NodeQueue {
+        private int[] nodes = new int[64];
+        private double[] distances = new double[64];
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        int peek() {
+            return nodes[0];
+        }
+
+        void push(int node, double distance) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >> 1;
+                if (distances[parent] <= distance) {
+                    break;
+                }
+                nodes[i] = nodes[parent];
+                distances[i] = distances[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            distances[i] = distance;
+        }
+
+        int pop() {
+            int top = nodes[0];
+            size--;
+            int node = nodes[size];
+            double distance = distances[size];
+            int i = 0;
+            int half = size >> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && distances[child + 1] < distances[child]) {
+                    child++;
+                }
+                if (distances[child] >= distance) {
+                    break;
+                }
+                nodes[i] = nodes[child];
+                distances[i] = distances[child];
+                i = child;
+            }
+            nodes[i] = node;
+            distances[i] = distance;
+            return top;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.simulator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * The original scheduler - every simulator thread shares one priority queue ordered by time to advance.
+ */
+public class PriorityQueueActorScheduler implements ActorScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(PriorityQueueActorScheduler.class);
+
+    private final PriorityBlockingQueue<Actor> priorityQueue;
+    private final int numberOfSimulators;
+    private final SchedulingLag lag = new SchedulingLag();
+
+    public PriorityQueueActorScheduler(int initialCapacity, int numberOfSimulators) {
+        this.priorityQueue = new PriorityBlockingQueue<>(initialCapacity, Comparator.comparingLong(Actor::timeToAdvance));
+        this.numberOfSimulators = numberOfSimulators;
+    }
+
+    @Override
+    public void add(Actor actor) {
+        priorityQueue.add(actor);
+    }
+
+    @Override
+    public void start(Consumer<Actor> onDue) {
+        for (int i = 0; i < numberOfSimulators; i++) {
+            Thread thread = new Thread(() -> {
+                while (true) {
+                    try {
+                        Actor actor = priorityQueue.take();
+                        long currentDelay = actor.timeToAdvance() - System.currentTimeMillis();
+                        if (currentDelay <= 0) {
+                            lag.record(-currentDelay);
+                            onDue.accept(actor);
+                            priorityQueue.add(actor);
+                        } else {
+                            priorityQueue.add(actor);
+                            Thread.sleep(currentDelay);
+                        }
+                    } catch (InterruptedException e) {
+                        logger.warn("Simulator thread interrupted", e);
+                        return;
+                    }
+                }
+            });
+            thread.setName("Simulator-" + i);
+            thread.start();
+        }
+    }
+
+    @Override
+    public SchedulingLag getLag() {
+        return lag;
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.simulator;
+
+import org.locationtech.jts.geom.Coordinate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * The compiled road network - coordinates, segment lengths and the road graph packed into one buffer.
+ * <p>
+ * The same layout is used in memory and on disk, so a snapshot written once from the KMZ is loaded by memory mapping
+ * it: nothing is parsed, there are no per vertex objects and every simulator JVM on the box shares the mapped pages.
+ * All reads are absolute so the network is safe to share between threads.
+ * <pre>
+ * header     magic, version, roadCount, vertexCount, edgeCount, unused (int), next road radius in meters (double)
+ * roadStart  int[roadCount + 1]      - road r is vertices roadStart[r] up to roadStart[r + 1]
+ * coordinate double[vertexCount * 2] - lng, lat of every vertex
+ * segment    float[vertexCount]      - miles from a vertex to the next vertex of its road, 0 for the last vertex
+ * edgeStart  int[roadCount + 1]      - the edges leaving the end of road r are edgeStart[r] up to edgeStart[r + 1]
+ * edge       int[edgeCount]          - the road an edge leads to
+ * edgeMiles  float[edgeCount]        - miles from the end of the road to the start of the road the edge leads to
+ * </pre>
+ * Every section starts on an 8 byte boundary, everything is little endian.
+ */
+public class RoadNetwork {
+    private static final int MAGIC = 0x524f4144; //ROAD
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+
+    private final ByteBuffer buffer;
+    private final int roadCount;
+    private final int vertexCount;
+    private final int edgeCount;
+    private final double nextRoadRadiusInMeters;
+    private final IntBuffer roadStart;
+    private final DoubleBuffer coordinates;
+    private final FloatBuffer segmentMiles;
+    private final IntBuffer edgeStart;
+    private final IntBuffer edges;
+    private final FloatBuffer edgeMiles;
+
+    private RoadNetwork(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a road network snapshot");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported road network snapshot version " + buffer.getInt(4));
+        }
+        roadCount = buffer.getInt(8);
+        vertexCount = buffer.getInt(12);
+        edgeCount = buffer.getInt(16);
+        nextRoadRadiusInMeters = buffer.getDouble(24);
+        if (buffer.capacity() < size(roadCount, vertexCount, edgeCount)) {
+            throw new IOException("Truncated road network snapshot");
+        }
+        int offset = HEADER_BYTES;
+        roadStart = slice(offset, (roadCount + 1) * Integer.BYTES).asIntBuffer();
+        offset = align(offset + (roadCount + 1) * Integer.BYTES);
+        coordinates = slice(offset, vertexCount * 2 * Double.BYTES).asDoubleBuffer();
+        offset = align(offset + vertexCount * 2 * Double.BYTES);
+        segmentMiles = slice(offset, vertexCount * Float.BYTES).asFloatBuffer();
+        offset = align(offset + vertexCount * Float.BYTES);
+        edgeStart = slice(offset, (roadCount + 1) * Integer.BYTES).asIntBuffer();
+        offset = align(offset + (roadCount + 1) * Integer.BYTES);
+        edges = slice(offset, edgeCount * Integer.BYTES).asIntBuffer();
+        offset = align(offset + edgeCount * Integer.BYTES);
+        edgeMiles = slice(offset, edgeCount * Float.BYTES).asFloatBuffer();
+    }
+
+    /**
+     * Memory map a snapshot written with {@link #write(File)}.
+     */
+    public static RoadNetwork map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            //the mapping stays valid after the channel is closed.
+            return new RoadNetwork(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Pack the roads and their graph.
+     *
+     * @param roads                  the coordinates of every road, the road id is the index
+     * @param segmentMiles           per road the miles from each vertex to the next
+     * @param edgeStart              the edges leaving road r are edgeStart[r] up to edgeStart[r + 1]
+     * @param edges                  the road each edge leads to
+     * @param edgeMiles              the miles each edge covers
+     * @param nextRoadRadiusInMeters the radius the graph was built with
+     */
+    public static RoadNetwork build(List<Coordinate[]> roads, float[][] segmentMiles, int[] edgeStart, int[] edges,
+                                    float[] edgeMiles, double nextRoadRadiusInMeters) {
+        int roadCount = roads.size();
+        int vertexCount = 0;
+        for (Coordinate[] road : roads) {
+            vertexCount += road.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size(roadCount, vertexCount, edges.length)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, roadCount);
+        buffer.putInt(12, vertexCount);
+        buffer.putInt(16, edges.length);
+        buffer.putDouble(24, nextRoadRadiusInMeters);
+
+        int offset = HEADER_BYTES;
+        int roadStartOffset = offset;
+        offset = align(offset + (roadCount + 1) * Integer.BYTES);
+        int coordinateOffset = offset;
+        offset = align(offset + vertexCount * 2 * Double.BYTES);
+        int segmentOffset = offset;
+        offset = align(offset + vertexCount * Float.BYTES);
+        int edgeStartOffset = offset;
+        offset = align(offset + (roadCount + 1) * Integer.BYTES);
+        int edgeOffset = offset;
+        offset = align(offset + edges.length * Integer.BYTES);
+        int edgeMilesOffset = offset;
+
+        int vertex = 0;
+        for (int road = 0; road < roadCount; road++) {
+            buffer.putInt(roadStartOffset + road * Integer.BYTES, vertex);
+            Coordinate[] coordinates = roads.get(road);
+            for (int i = 0; i < coordinates.length; i++, vertex++) {
+                buffer.putDouble(coordinateOffset + vertex * 2 * Double.BYTES, coordinates[i].x);
+                buffer.putDouble(coordinateOffset + (vertex * 2 + 1) * Double.BYTES, coordinates[i].y);
+                buffer.putFloat(segmentOffset + vertex * Float.BYTES, i < segmentMiles[road].length ? segmentMiles[road][i] : 0);
+            }
+        }
+        buffer.putInt(roadStartOffset + roadCount * Integer.BYTES, vertex);
+        for (int i = 0; i < edgeStart.length; i++) {
+            buffer.putInt(edgeStartOffset + i * Integer.BYTES, edgeStart[i]);
+        }
+        for (int i = 0; i < edges.length; i++) {
+            buffer.putInt(edgeOffset + i * Integer.BYTES, edges[i]);
+            buffer.putFloat(edgeMilesOffset + i * Float.BYTES, edgeMiles[i]);
+        }
+        try {
+            return new RoadNetwork(buffer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Write the snapshot.  Goes to a temporary file first so a reader never maps a half written file.
+     */
+    public void write(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", parent);
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer toWrite = buffer.duplicate();
+            toWrite.clear();
+            while (toWrite.hasRemaining()) {
+                channel.write(toWrite);
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public double getNextRoadRadiusInMeters() {
+        return nextRoadRadiusInMeters;
+    }
+
+    public int getRoadCount() {
+        return roadCount;
+    }
+
+    public int getVertexCount(int road) {
+        return roadStart.get(road + 1) - roadStart.get(road);
+    }
+
+    public double getLng(int road, int vertex) {
+        return coordinates.get((roadStart.get(road) + vertex) * 2);
+    }
+
+    public double getLat(int road, int vertex) {
+        return coordinates.get((roadStart.get(road) + vertex) * 2 + 1);
+    }
+
+    public float getSegmentMiles(int road, int vertex) {
+        return segmentMiles.get(roadStart.get(road) + vertex);
+    }
+
+    public int getEdgeStart(int road) {
+        return edgeStart.get(road);
+    }
+
+    public int getEdgeEnd(int road) {
+        return edgeStart.get(road + 1);
+    }
+
+    public int getEdgeTarget(int edge) {
+        return edges.get(edge);
+    }
+
+    public float getEdgeMiles(int edge) {
+        return edgeMiles.get(edge);
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        return buffer.slice(offset, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int size(int roadCount, int vertexCount, int edgeCount) {
+        int size = HEADER_BYTES;
+        size = align(size + (roadCount + 1) * Integer.BYTES);
+        size = align(size + vertexCount * 2 * Double.BYTES);
+        size = align(size + vertexCount * Float.BYTES);
+        size = align(size + (roadCount + 1) * Integer.BYTES);
+        size = align(size + edgeCount * Integer.BYTES);
+        return size + edgeCount * Float.BYTES;
+    }
+
+    private static int align(int offset) {
+        return (offset + 7) & ~7;
+    }
+}
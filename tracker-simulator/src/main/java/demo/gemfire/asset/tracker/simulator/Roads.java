@@ -17,50 +17,94 @@
 package demo.gemfire.asset.tracker.simulator;
 
 import org.apache.commons.collections.CollectionUtils;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
 import org.geotools.kml.KMLConfiguration;
-import org.geotools.referencing.CRS;
-import org.geotools.referencing.GeodeticCalculator;
 import org.geotools.xsd.Parser;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.opengis.feature.simple.SimpleFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.ParserConfigurationException;
-import java.awt.geom.Point2D;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 import static org.springframework.util.Assert.notNull;
 
 /**
+ * The road network the actors drive on.  Roads are identified by an int id and are backed by a {@link RoadNetwork},
+ * either built from the KMZ or memory mapped from a snapshot compiled from it earlier.
+ * <p>
  * Created by Charlie Black on 7/5/16.
  */
 public class Roads {
-    private static final int CIRCLE_APPROXIMATION = 32;
-    private BasicQuadTreeImpl geospatialIndex = new BasicQuadTreeImpl();
-    private Map<Integer, Geometry> multimap = new HashMap<>();
+    private static final Logger logger = LoggerFactory.getLogger(Roads.class);
+    private PackedSpatialIndex geospatialIndex;
     private GeometryFactory geometryFactory = new GeometryFactory();
     private Random random = new Random(System.currentTimeMillis());
-    private AtomicInteger count = new AtomicInteger(0);
+    private double nextRoadRadiusInMeters = 5 * Actor.METERS_IN_MILE;
+    private RoadNetwork network = RoadNetwork.build(Collections.emptyList(), new float[0][], new int[1], new int[0], new float[0], 0);
+    private volatile boolean useCachedDistances = true;
 
     public Roads(GeometryFactory geometryFactory) {
         this.geometryFactory = geometryFactory;
-        geospatialIndex.setGeometryFactory(geometryFactory);
     }
     public Roads(GeometryFactory geometryFactory, String roadFileName) throws IOException, ParserConfigurationException, SAXException {
         this(geometryFactory);
         setRoads(roadFileName);
     }
 
+    public Roads(GeometryFactory geometryFactory, String roadFileName, double nextRoadRadiusMiles) throws IOException, ParserConfigurationException, SAXException {
+        this(geometryFactory);
+        this.nextRoadRadiusInMeters = nextRoadRadiusMiles * Actor.METERS_IN_MILE;
+        setRoads(roadFileName);
+    }
+
+    /**
+     * Load the roads from a snapshot, compiling the snapshot from the KMZ first when it is missing, older than the
+     * KMZ or was built with a different next road radius.
+     *
+     * @param roadFileName     the KMZ
+     * @param snapshotFileName the compiled road network
+     */
+    public Roads(GeometryFactory geometryFactory, String roadFileName, String snapshotFileName, double nextRoadRadiusMiles) throws IOException, ParserConfigurationException, SAXException {
+        this(geometryFactory);
+        this.nextRoadRadiusInMeters = nextRoadRadiusMiles * Actor.METERS_IN_MILE;
+        File snapshot = new File(snapshotFileName);
+        File roadFile = new File(roadFileName);
+        if (snapshot.exists() && snapshot.lastModified() >= roadFile.lastModified()) {
+            try {
+                RoadNetwork mapped = RoadNetwork.map(snapshot);
+                if (mapped.getNextRoadRadiusInMeters() == nextRoadRadiusInMeters) {
+                    network = mapped;
+                    logger.info("Mapped {} roads from {}", network.getRoadCount(), snapshot);
+                    return;
+                }
+            } catch (IOException e) {
+                logger.warn("Can't use road snapshot {} - rebuilding it", snapshot, e);
+            }
+        }
+        setRoads(roadFileName);
+        try {
+            network.write(snapshot);
+            network = RoadNetwork.map(snapshot);
+            logger.info("Wrote {} roads to {}", network.getRoadCount(), snapshot);
+        } catch (IOException e) {
+            logger.warn("Can't write road snapshot {}", snapshot, e);
+        }
+    }
+
     /**
-     * Find the a random road within a 5 mile radius.
+     * Find the a random road within the next road radius (5 miles by default).
      *
      * @param coordinate
      * @return
@@ -69,23 +113,109 @@ public class Roads {
     public Coordinate[] getNextRoad(Coordinate coordinate) {
 
         Coordinate[] result = null;
-        Collection<Integer> coordinates = geospatialIndex.query(calculatePolygon(coordinate, 5 * Actor.METERS_IN_MILE));
-        if (coordinates != null && coordinates.size() > 0) {
-            Integer[] array = coordinates.toArray(new Integer[coordinates.size()]);
-            int index = random.nextInt(array.length);
-            result = multimap.get(array[index]).getCoordinates();
+        IntArrayList found = new IntArrayList();
+        getGeospatialIndex().withinDistance(coordinate.x, coordinate.y, nextRoadRadiusInMeters, found);
+        if (found.notEmpty()) {
+            result = getRoad(found.get(random.nextInt(found.size())));
         }
         return result;
     }
 
+    /**
+     * Pick a random road that starts near the end of the given road.  The candidates come from the road graph built
+     * when the roads were loaded, so this is just a random index.
+     *
+     * @param roadId
+     * @return
+     */
+    public int getNextRoadId(int roadId) {
+        return getEdgeTarget(getNextEdge(roadId));
+    }
+
+    /**
+     * Pick a random edge of the road graph leaving the end of the given road.
+     *
+     * @param roadId
+     * @return the edge, use {@link #getEdgeTarget(int)} for the road it leads to.
+     */
+    public int getNextEdge(int roadId) {
+        int start = network.getEdgeStart(roadId);
+        return start + ThreadLocalRandom.current().nextInt(network.getEdgeEnd(roadId) - start);
+    }
+
+    public int getEdgeTarget(int edge) {
+        return network.getEdgeTarget(edge);
+    }
+
+    /**
+     * Miles from the end of the road to the start of the road the edge leads to.
+     */
+    public double getEdgeMiles(int roadId, int edge) {
+        if (useCachedDistances) {
+            return network.getEdgeMiles(edge);
+        }
+        int last = network.getVertexCount(roadId) - 1;
+        int to = network.getEdgeTarget(edge);
+        return Actor.distanceInMiles(network.getLat(roadId, last), network.getLng(roadId, last), network.getLat(to, 0), network.getLng(to, 0));
+    }
+
+    /**
+     * Miles from the vertex to the next vertex of the road.
+     */
+    public double getSegmentMiles(int roadId, int vertex) {
+        if (useCachedDistances) {
+            return network.getSegmentMiles(roadId, vertex);
+        }
+        return Actor.distanceInMiles(network.getLat(roadId, vertex), network.getLng(roadId, vertex),
+                network.getLat(roadId, vertex + 1), network.getLng(roadId, vertex + 1));
+    }
+
+    /**
+     * Turn off to have every segment length calculated when it's asked for - the way it used to be done.  Only
+     * useful to measure what the cache saves.
+     */
+    public void setUseCachedDistances(boolean useCachedDistances) {
+        this.useCachedDistances = useCachedDistances;
+    }
+
+    public int getRandomRoadId() {
+        return ThreadLocalRandom.current().nextInt(network.getRoadCount());
+    }
+
+    public int getRoadCount() {
+        return network.getRoadCount();
+    }
+
+    /**
+     * The coordinates of a road.  Creates the coordinates on every call - the simulator uses the accessors below.
+     */
+    public Coordinate[] getRoad(int roadId) {
+        Coordinate[] coordinates = new Coordinate[network.getVertexCount(roadId)];
+        for (int i = 0; i < coordinates.length; i++) {
+            coordinates[i] = new Coordinate(network.getLng(roadId, i), network.getLat(roadId, i));
+        }
+        return coordinates;
+    }
+
+    public int getVertexCount(int roadId) {
+        return network.getVertexCount(roadId);
+    }
+
+    public double getLat(int roadId, int vertex) {
+        return network.getLat(roadId, vertex);
+    }
+
+    public double getLng(int roadId, int vertex) {
+        return network.getLng(roadId, vertex);
+    }
+
     /**
      * Get any road randomly.
      *
      * @return
      */
     public Coordinate[] getRandomRoad() {
-        List<Geometry> geometries = new ArrayList<>(multimap.values());
-        return geometries.get(random.nextInt(geometries.size())).getCoordinates();
+        return getRoad(random.nextInt(network.getRoadCount()));
     }
 
     /**
@@ -120,16 +250,25 @@ public class Roads {
             ArrayList<Geometry> geometries = new ArrayList<>();
             findAllGeometries(geometries, featureSet);
 
-            addRoads(geometries);
-
-            ArrayList<Geometry> reverse = new ArrayList<>();
-
+            List<Coordinate[]> roads = new ArrayList<>();
+            for (int road = 0; road < network.getRoadCount(); road++) {
+                roads.add(getRoad(road));
+            }
+            for (Geometry curr : geometries) {
+                roads.add(curr.getCoordinates());
+            }
             for (Geometry curr : geometries) {
                 Coordinate[] toReverse = Arrays.copyOf(curr.getCoordinates(), curr.getCoordinates().length);
                 CollectionUtils.reverseArray(toReverse);
-                reverse.add(geometryFactory.createLineString(toReverse));
+                roads.add(toReverse);
             }
-            addRoads(reverse);
+            PackedSpatialIndex index = buildIndex(roads);
+            int[] edgeStart = new int[roads.size() + 1];
+            int[] edges = buildRoadGraph(roads, index, edgeStart);
+            float[][] segmentMiles = calculateSegmentMiles(roads);
+            float[] edgeMiles = calculateEdgeMiles(roads, edgeStart, edges);
+            network = RoadNetwork.build(roads, segmentMiles, edgeStart, edges, edgeMiles, nextRoadRadiusInMeters);
+            geospatialIndex = index;
         } catch (Exception e) {
             e.printStackTrace();
             System.out.println("e = " + e);
@@ -137,49 +276,99 @@ public class Roads {
         }
     }
 
-    private void addRoads(Collection<Geometry> roadGeometries) {
-        for (Geometry geometry : roadGeometries) {
-            int road = count.incrementAndGet();
-            multimap.put(road, geometry);
-            geospatialIndex.upsert(road, geometry);
+    /**
+     * Index of where each road starts.  Only needed to build the road graph and for {@link #getNextRoad(Coordinate)}
+     * so a mapped network builds it the first time it is asked for.
+     */
+    private synchronized PackedSpatialIndex getGeospatialIndex() {
+        if (geospatialIndex == null) {
+            int roadCount = network.getRoadCount();
+            int[] keys = new int[roadCount];
+            double[] xs = new double[roadCount];
+            double[] ys = new double[roadCount];
+            for (int road = 0; road < roadCount; road++) {
+                keys[road] = road;
+                xs[road] = network.getLng(road, 0);
+                ys[road] = network.getLat(road, 0);
+            }
+            geospatialIndex = new PackedSpatialIndex(geometryFactory, keys, xs, ys);
         }
+        return geospatialIndex;
     }
 
-
-    private Coordinate convert(Point2D point2D) {
-        return new Coordinate(point2D.getX(), point2D.getY());
+    private PackedSpatialIndex buildIndex(List<Coordinate[]> roads) {
+        int[] keys = new int[roads.size()];
+        double[] xs = new double[roads.size()];
+        double[] ys = new double[roads.size()];
+        for (int road = 0; road < roads.size(); road++) {
+            keys[road] = road;
+            xs[road] = roads.get(road)[0].x;
+            ys[road] = roads.get(road)[0].y;
+        }
+        return new PackedSpatialIndex(geometryFactory, keys, xs, ys);
     }
 
-    private Geometry calculatePolygon(Coordinate coordinate, double radiusInMeters) {
-        return calculatePolygon(coordinate.y, coordinate.x, radiusInMeters);
+    /**
+     * For the end of every road find the roads that start within the next road radius.  This is the geometry work
+     * {@link #getNextRoad(Coordinate)} does per call, done once per road up front.
+     *
+     * @param edgeStart filled in with where the edges of each road start
+     * @return the road each edge leads to
+     */
+    private int[] buildRoadGraph(List<Coordinate[]> roads, PackedSpatialIndex index, int[] edgeStart) {
+        int roadCount = roads.size();
+        int[][] candidates = new int[roadCount][];
+        IntStream.range(0, roadCount).parallel().forEach(road -> {
+            Coordinate[] coordinates = roads.get(road);
+            Coordinate end = coordinates[coordinates.length - 1];
+            IntArrayList found = new IntArrayList();
+            if (index.withinDistance(end.x, end.y, nextRoadRadiusInMeters, found) == 0) {
+                //can't happen with the reversed copies - keep every road connected anyway.
+                index.nearest(end.x, end.y, 1, found);
+            }
+            candidates[road] = found.toArray();
+        });
+        for (int road = 0; road < roadCount; road++) {
+            edgeStart[road + 1] = edgeStart[road] + candidates[road].length;
+        }
+        int[] edges = new int[edgeStart[roadCount]];
+        for (int road = 0; road < roadCount; road++) {
+            System.arraycopy(candidates[road], 0, edges, edgeStart[road], candidates[road].length);
+        }
+        return edges;
     }
 
-    private Geometry calculatePolygon(double lat, double lng, double radiusInMeters) {
-
-        Geometry returnValue = null;
-        try {
-            GeodeticCalculator calculator = new GeodeticCalculator(CRS.decode("EPSG:4326"));
-            double azimuthInc = 360 / CIRCLE_APPROXIMATION;
-
-            calculator.setStartingGeographicPoint(lng, lat);
-            calculator.setDirection(0, radiusInMeters);
-            Coordinate start = convert(calculator.getDestinationGeographicPoint());
-            List<Coordinate> coordinates = new ArrayList<>();
-            coordinates.add(start);
-            for (double i = azimuthInc; i < 360; i += azimuthInc) {
-                calculator.setDirection(i, radiusInMeters);
-                coordinates.add(convert(calculator.getDestinationGeographicPoint()));
+    /**
+     * The road geometry never changes, so work out the length of every segment once.
+     */
+    private float[][] calculateSegmentMiles(List<Coordinate[]> roads) {
+        float[][] segments = new float[roads.size()][];
+        IntStream.range(0, roads.size()).parallel().forEach(road -> {
+            Coordinate[] coordinates = roads.get(road);
+            float[] lengths = new float[coordinates.length - 1];
+            for (int i = 0; i < lengths.length; i++) {
+                lengths[i] = (float) Actor.distanceInMiles(coordinates[i].y, coordinates[i].x, coordinates[i + 1].y, coordinates[i + 1].x);
             }
-            coordinates.add(start);
-
-            returnValue = geometryFactory.createPolygon(coordinates.toArray(new Coordinate[coordinates.size()]));
-
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return returnValue;
+            segments[road] = lengths;
+        });
+        return segments;
     }
 
+    /**
+     * Same for the hop from the end of a road to the start of the next one.
+     */
+    private float[] calculateEdgeMiles(List<Coordinate[]> roads, int[] edgeStart, int[] edges) {
+        float[] edgeMiles = new float[edges.length];
+        IntStream.range(0, roads.size()).parallel().forEach(road -> {
+            Coordinate[] coordinates = roads.get(road);
+            Coordinate end = coordinates[coordinates.length - 1];
+            for (int edge = edgeStart[road]; edge < edgeStart[road + 1]; edge++) {
+                Coordinate start = roads.get(edges[edge])[0];
+                edgeMiles[edge] = (float) Actor.distanceInMiles(end.y, end.x, start.y, start.x);
+            }
+        });
+        return edgeMiles;
+    }
 
     /**
      * Recursively find all of the roads in the file.   Why?  The roads can be in folders and we have to navigate the
@@ -0,0 +1,73 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.simulator;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks how late actors fire compared to when they were due.  The simulator threads record, a reporter
+ * periodically takes a snapshot which resets the counters.
+ */
+public class SchedulingLag {
+    private final LongAdder fired = new LongAdder();
+    private final LongAdder totalLagMs = new LongAdder();
+    private final LongAccumulator maxLagMs = new LongAccumulator(Long::max, 0);
+
+    public void record(long lagMs) {
+        long lag = Math.max(0, lagMs);
+        fired.increment();
+        totalLagMs.add(lag);
+        maxLagMs.accumulate(lag);
+    }
+
+    /**
+     * @return what was recorded since the last snapshot.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(fired.sumThenReset(), totalLagMs.sumThenReset(), maxLagMs.getThenReset());
+    }
+
+    public static class Snapshot {
+        private final long fired;
+        private final long totalLagMs;
+        private final long maxLagMs;
+
+        Snapshot(long fired, long totalLagMs, long maxLagMs) {
+            this.fired = fired;
+            this.totalLagMs = totalLagMs;
+            this.maxLagMs = maxLagMs;
+        }
+
+        public long getFired() {
+            return fired;
+        }
+
+        public double getAvgLagMs() {
+            return fired == 0 ? 0.0 : (double) totalLagMs / fired;
+        }
+
+        public long getMaxLagMs() {
+            return maxLagMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("fired=%d avgLagMs=%.1f maxLagMs=%d", fired, getAvgLagMs(), maxLagMs);
+        }
+    }
+}
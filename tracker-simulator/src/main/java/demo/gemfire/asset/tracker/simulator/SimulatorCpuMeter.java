@@ -0,0 +1,55 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.simulator;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the CPU time the simulator threads burn per event, so changes to the simulator can be compared on the
+ * same number of actors.
+ */
+public class SimulatorCpuMeter {
+    private static final String SIMULATOR_THREAD_PREFIX = "Simulator-";
+
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private long lastCpuNanos;
+
+    /**
+     * @param events the events fired since the last call
+     * @return simulator CPU microseconds per event since the last call
+     */
+    public synchronized double cpuMicrosPerEvent(long events) {
+        long cpuNanos = simulatorCpuNanos();
+        long delta = cpuNanos - lastCpuNanos;
+        lastCpuNanos = cpuNanos;
+        return events == 0 ? 0.0 : delta / 1000.0 / events;
+    }
+
+    private long simulatorCpuNanos() {
+        long total = 0;
+        if (threadMXBean.isThreadCpuTimeSupported()) {
+            for (ThreadInfo info : threadMXBean.getThreadInfo(threadMXBean.getAllThreadIds())) {
+                if (info != null && info.getThreadName().startsWith(SIMULATOR_THREAD_PREFIX)) {
+                    total += Math.max(0, threadMXBean.getThreadCpuTime(info.getThreadId()));
+                }
+            }
+        }
+        return total;
+    }
+}
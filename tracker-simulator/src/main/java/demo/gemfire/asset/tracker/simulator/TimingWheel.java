@@ -0,0 +1,150 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.simulator;
+
+import java.util.Arrays;
+
+/**
+ * A hierarchical timing wheel over int handles.
+ * <p>
+ * Level 0 has 64 slots of one tick each, every level above has 64 slots that each span a whole rotation of the level
+ * below.  Scheduling drops the handle into the slot for its due tick and expiring walks the level 0 slots, cascading
+ * a slot of the next level down whenever the level below wraps.  Both are O(1) per handle.  Anything beyond the top
+ * level parks in its farthest slot and gets re-filed when that slot cascades.
+ * <p>
+ * The slots are intrusive linked lists kept in primitive arrays indexed by handle, so scheduling doesn't allocate.
+ * A handle can be scheduled once at a time.  Not thread safe - each simulator thread owns its own wheel.
+ */
+public class TimingWheel {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final int NONE = -1;
+
+    public interface Expired {
+        void expired(int handle, long dueMs);
+    }
+
+    private final long tickMs;
+    private final int[] heads = new int[LEVELS * SLOTS];
+    private int[] next;
+    private long[] due;
+    //handles that were already due when they were scheduled or cascaded.
+    private int dueHead = NONE;
+    private long currentTick;
+
+    public TimingWheel(long tickMs, long startMs, int initialCapacity) {
+        this.tickMs = Math.max(1, tickMs);
+        this.currentTick = startMs / this.tickMs;
+        Arrays.fill(heads, NONE);
+        next = new int[Math.max(16, initialCapacity)];
+        due = new long[next.length];
+    }
+
+    public long getTickMs() {
+        return tickMs;
+    }
+
+    public void schedule(int handle, long dueMs) {
+        if (handle >= next.length) {
+            int capacity = Math.max(handle + 1, next.length * 2);
+            next = Arrays.copyOf(next, capacity);
+            due = Arrays.copyOf(due, capacity);
+        }
+        due[handle] = dueMs;
+        place(handle);
+    }
+
+    /**
+     * Move the wheel up to the given time and hand every handle that came due to the callback.  The callback is free
+     * to schedule the handle again.
+     *
+     * @return how many handles expired
+     */
+    public int advance(long nowMs, Expired expired) {
+        long targetTick = nowMs / tickMs;
+        int count = expire(detachDue(), expired);
+        while (currentTick < targetTick) {
+            currentTick++;
+            //top down so a cascade lands in a lower level before that level is looked at.
+            for (int level = LEVELS - 1; level > 0; level--) {
+                int shift = SLOT_BITS * level;
+                if ((currentTick & ((1L << shift) - 1)) == 0) {
+                    cascade(level * SLOTS + (int) ((currentTick >>> shift) & MASK));
+                }
+            }
+            int slot = (int) (currentTick & MASK);
+            int head = heads[slot];
+            heads[slot] = NONE;
+            count += expire(head, expired);
+            count += expire(detachDue(), expired);
+        }
+        return count;
+    }
+
+    private void place(int handle) {
+        //round up so a handle never fires before it is due.
+        long dueTick = (due[handle] + tickMs - 1) / tickMs;
+        if (dueTick <= currentTick) {
+            next[handle] = dueHead;
+            dueHead = handle;
+            return;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && (dueTick >>> (SLOT_BITS * level)) - (currentTick >>> (SLOT_BITS * level)) >= SLOTS) {
+            level++;
+        }
+        int shift = SLOT_BITS * level;
+        long slotTick = dueTick >>> shift;
+        if (slotTick - (currentTick >>> shift) >= SLOTS) {
+            //past the top level - park it in the farthest slot.
+            slotTick = (currentTick >>> shift) + SLOTS - 1;
+        }
+        int slot = level * SLOTS + (int) (slotTick & MASK);
+        next[handle] = heads[slot];
+        heads[slot] = handle;
+    }
+
+    private void cascade(int slot) {
+        int handle = heads[slot];
+        heads[slot] = NONE;
+        while (handle != NONE) {
+            int following = next[handle];
+            place(handle);
+            handle = following;
+        }
+    }
+
+    private int detachDue() {
+        int head = dueHead;
+        dueHead = NONE;
+        return head;
+    }
+
+    private int expire(int handle, Expired expired) {
+        int count = 0;
+        while (handle != NONE) {
+            //read the link first - the callback may schedule the handle again.
+            int following = next[handle];
+            expired.expired(handle, due[handle]);
+            count++;
+            handle = following;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.simulator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Shards the actors over the simulator threads, each thread owning a {@link TimingWheel} for its actors.
+ * <p>
+ * New actors are handed round robin to a shard through a lock free inbox, after that an actor never leaves its
+ * shard so scheduling it again is an O(1) insert into a wheel nobody else touches.
+ */
+public class TimingWheelActorScheduler implements ActorScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(TimingWheelActorScheduler.class);
+
+    private final Shard[] shards;
+    private final AtomicInteger nextShard = new AtomicInteger();
+    private final SchedulingLag lag = new SchedulingLag();
+
+    public TimingWheelActorScheduler(int numberOfActors, int numberOfSimulators, long tickMs) {
+        shards = new Shard[numberOfSimulators];
+        int perShard = numberOfActors / numberOfSimulators + 1;
+        for (int i = 0; i < numberOfSimulators; i++) {
+            shards[i] = new Shard(tickMs, perShard);
+        }
+    }
+
+    @Override
+    public void add(Actor actor) {
+        shards[Math.floorMod(nextShard.getAndIncrement(), shards.length)].inbox.add(actor);
+    }
+
+    @Override
+    public void start(Consumer<Actor> onDue) {
+        for (int i = 0; i < shards.length; i++) {
+            Shard shard = shards[i];
+            shard.onDue = onDue;
+            Thread thread = new Thread(shard);
+            thread.setName("Simulator-" + i);
+            thread.start();
+        }
+    }
+
+    @Override
+    public SchedulingLag getLag() {
+        return lag;
+    }
+
+    private class Shard implements Runnable, TimingWheel.Expired {
+        private final Queue<Actor> inbox = new ConcurrentLinkedQueue<>();
+        private final TimingWheel wheel;
+        private Actor[] actors;
+        private int size;
+        private Consumer<Actor> onDue;
+        private long now;
+
+        Shard(long tickMs, int initialCapacity) {
+            wheel = new TimingWheel(tickMs, System.currentTimeMillis(), initialCapacity);
+            actors = new Actor[initialCapacity];
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                for (Actor actor = inbox.poll(); actor != null; actor = inbox.poll()) {
+                    if (size == actors.length) {
+                        actors = Arrays.copyOf(actors, size * 2);
+                    }
+                    actors[size] = actor;
+                    wheel.schedule(size++, actor.timeToAdvance());
+                }
+                now = System.currentTimeMillis();
+                if (wheel.advance(now, this) == 0) {
+                    try {
+                        Thread.sleep(wheel.getTickMs());
+                    } catch (InterruptedException e) {
+                        logger.warn("Simulator thread interrupted", e);
+                        return;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void expired(int handle, long dueMs) {
+            Actor actor = actors[handle];
+            lag.record(now - dueMs);
+            try {
+                onDue.accept(actor);
+            } catch (Exception e) {
+                logger.error(e.getMessage(), e);
+            }
+            wheel.schedule(handle, actor.timeToAdvance());
+        }
+    }
+}
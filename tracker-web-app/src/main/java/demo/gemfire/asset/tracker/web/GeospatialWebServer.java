@@ -16,27 +16,55 @@
 
 package demo.gemfire.asset.tracker.web;
 
+import demo.gemfire.asset.tracker.lib.CompactLocationEvent;
+import demo.gemfire.asset.tracker.lib.LatLonPointHelper;
+import demo.gemfire.asset.tracker.lib.LocationChunk;
 import demo.gemfire.asset.tracker.lib.LocationEvent;
+import demo.gemfire.asset.tracker.lib.LocationGrid;
+import demo.gemfire.asset.tracker.lib.LocationGridFunction;
+import demo.gemfire.asset.tracker.lib.LocationsInRectangleFunction;
+import demo.gemfire.asset.tracker.lib.LocationsInShapeFunction;
+import demo.gemfire.asset.tracker.lib.ShapeHelper;
 import demo.gemfire.asset.tracker.lib.SpaitalHelper;
 import demo.gemfire.asset.tracker.lib.ToolBox;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.geode.cache.Region;
 import org.apache.geode.cache.client.ClientCache;
 import org.apache.geode.cache.client.ClientCacheFactory;
 import org.apache.geode.cache.client.ClientRegionShortcut;
+import org.apache.geode.cache.execute.Execution;
+import org.apache.geode.cache.execute.FunctionService;
 import org.apache.geode.cache.lucene.LuceneQuery;
 import org.apache.geode.cache.lucene.LuceneQueryException;
-import org.apache.geode.cache.lucene.LuceneService;
+import org.apache.geode.cache.lucene.LuceneQueryFactory;
+import org.apache.geode.cache.lucene.LuceneResultStruct;
 import org.apache.geode.cache.lucene.LuceneServiceProvider;
+import org.apache.geode.cache.lucene.PageableLuceneQueryResults;
+import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.io.ParseException;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.ImportResource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
 
 /**
  * Created by Charlie Black on 9/23/16.
@@ -48,21 +76,421 @@ public class GeospatialWebServer implements InitializingBean {
 
     @Value("${demo.GeospatialWebServer.locators:localhost[10334]}")
     private String locators;
+    @Value("${demo.GeospatialWebServer.compactWireFormat:false}")
+    private boolean compactWireFormat;
+    //pointVector for LocationInfoSerializer, latLonPoint for LatLonPointSerializer - has to match the index.
+    @Value("${demo.GeospatialWebServer.indexType:pointVector}")
+    private String indexType;
+    //pointVector index only - answer the viewport with geohash cell terms and only test the edge cells geometrically.
+    @Value("${demo.GeospatialWebServer.cellQueries:false}")
+    private boolean cellQueries;
+    //lucene runs the index query and brings back every LocationEvent, function has each server scan its own data
+    // with LocationsInRectangleFunction and send back LocationChunks.
+    @Value("${demo.GeospatialWebServer.queryMode:lucene}")
+    private String queryMode;
+    //the most locations one /query sends back, whatever limit asks for.
+    @Value("${demo.GeospatialWebServer.maxLimit:10000}")
+    private int maxLimit;
+    @Value("${demo.GeospatialWebServer.pageSize:1000}")
+    private int defaultPageSize;
+    //answer /query from a continuous query backed copy of the locations in this process - see LocalSpatialView.
+    @Value("${demo.GeospatialWebServer.localView:false}")
+    private boolean localView;
+    @Value("${demo.GeospatialWebServer.localViewCellSize:0.05}")
+    private double localViewCellSize;
+    //how long the local view keeps answering after losing its subscription before queries go to the servers again.
+    @Value("${demo.GeospatialWebServer.localViewStalenessMs:5000}")
+    private long localViewStalenessMs;
+    //push viewport changes from the local view over /subscribe, at most one frame per frameMs per subscriber.
+    @Value("${demo.GeospatialWebServer.subscriptions:false}")
+    private boolean subscriptions;
+    @Value("${demo.GeospatialWebServer.frameMs:250}")
+    private long minFrameMs;
+    //how wide a /clusters cell is on screen when the zoom level is given, and how many cells across when it isn't.
+    @Value("${demo.GeospatialWebServer.clusterPixels:64}")
+    private int clusterPixels;
+    @Value("${demo.GeospatialWebServer.clusterColumns:32}")
+    private int clusterColumns;
+    @Value("${demo.GeospatialWebServer.maxClusterCells:65536}")
+    private int maxClusterCells;
+    //cache /query results by tile for tileCacheTtlMs - see TileCache.
+    @Value("${demo.GeospatialWebServer.tileCache:false}")
+    private boolean tileCacheEnabled;
+    @Value("${demo.GeospatialWebServer.tileCacheTileSize:0.01}")
+    private double tileCacheTileSize;
+    @Value("${demo.GeospatialWebServer.tileCacheMaxTiles:64}")
+    private int tileCacheMaxTiles;
+    @Value("${demo.GeospatialWebServer.tileCacheTtlMs:1000}")
+    private long tileCacheTtlMs;
+    @Value("${demo.GeospatialWebServer.tileCacheMaxBytes:67108864}")
+    private long tileCacheMaxBytes;
+    //the most locations the tiles for one request may hold - past that the request goes to the servers uncached.
+    @Value("${demo.GeospatialWebServer.tileCacheMaxLocations:50000}")
+    private int tileCacheMaxLocations;
+    //the first radius /nearest tries, four times wider each time it finds fewer than k, up to nearestMaxMiles.
+    @Value("${demo.GeospatialWebServer.nearestStartMiles:1}")
+    private double nearestStartMiles;
+    @Value("${demo.GeospatialWebServer.nearestMaxMiles:4096}")
+    private double nearestMaxMiles;
+    //the most keys the index prefilter of /within hands to the servers - past that they check everything they have.
+    @Value("${demo.GeospatialWebServer.maxShapeCandidates:100000}")
+    private int maxShapeCandidates;
 
+    private static final String NEXT_CURSOR = "X-Next-Cursor";
+    private final JsonFactory jsonFactory = new JsonFactory();
     private ClientCache clientCache;
+    private Region<String, LocationEvent> region;
+    private LocalSpatialView spatialView;
+    private ViewportSubscriptions viewportSubscriptions;
+    private TileCache tileCache;
     @Override
     public void afterPropertiesSet() throws Exception {
         ClientCacheFactory clientCacheFactory = new ClientCacheFactory();
         ToolBox.configureDefaultClientPool(clientCacheFactory, locators);
+        if (localView || subscriptions) {
+            clientCacheFactory.setPoolSubscriptionEnabled(true);
+        }
         clientCache = clientCacheFactory.create();
-        clientCache.createClientRegionFactory(ClientRegionShortcut.PROXY).create("geoSpatialRegion");
+        if (compactWireFormat) {
+            CompactLocationEvent.register();
+        }
+        region = clientCache.<String, LocationEvent>createClientRegionFactory(ClientRegionShortcut.PROXY).create("geoSpatialRegion");
+        if (localView || subscriptions) {
+            spatialView = new LocalSpatialView(clientCache, "geoSpatialRegion", localViewCellSize, localViewStalenessMs);
+            spatialView.start();
+        }
+        if (subscriptions) {
+            viewportSubscriptions = new ViewportSubscriptions(spatialView, maxLimit);
+        }
+        if (tileCacheEnabled) {
+            tileCache = new TileCache(tileCacheTileSize, tileCacheMaxTiles, tileCacheTtlMs, tileCacheMaxBytes, tileCacheMaxLocations);
+        }
     }
+    /**
+     * The locations in the rectangle, at most limit of them.  The JSON is written as the results come in rather than
+     * from a list of everything found.
+     * <p>
+     * With queryMode=function or the local view the locations come in uid order and a full page sets X-Next-Cursor -
+     * pass it back as cursor for the next page.  The lucene query has no stable order so it takes no cursor, pageSize is how many
+     * values it fetches from the servers at a time.
+     * <p>
+     * With the tile cache on, what isn't answered by the local view comes from the cached tiles when they hold no more
+     * than tileCacheMaxLocations - in uid order, but with a cursor only in queryMode=function.
+     */
     @RequestMapping(value = "/query", method = RequestMethod.GET, produces = "application/json")
-    public Collection<LocationEvent> query(double minLng, double minLat, double maxLng, double maxLat) throws ParseException, LuceneQueryException {
-        LuceneService luceneService = LuceneServiceProvider.get(clientCache);
-        LuceneQuery<String, LocationEvent> luceneQuery = SpaitalHelper.findInRectangle("simpleIndex", "geoSpatialRegion", minLng, minLat, maxLng, maxLat, luceneService);
-        return luceneQuery.findValues();
+    public ResponseEntity<StreamingResponseBody> query(double minLng, double minLat, double maxLng, double maxLat,
+                                                       @RequestParam(required = false) Integer limit,
+                                                       @RequestParam(required = false) Integer pageSize,
+                                                       @RequestParam(required = false) String cursor) throws LuceneQueryException {
+        int resultLimit = Math.max(1, Math.min(limit == null ? maxLimit : limit, maxLimit));
+        LocalSpatialView view = spatialView;
+        boolean fromView = localView && view.isFresh();
+        boolean functionMode = "function".equalsIgnoreCase(queryMode);
+        if (fromView) {
+            return pageResponse(view.findPage(minLng, minLat, maxLng, maxLat, cursor, resultLimit + 1), resultLimit, true);
+        }
+        if (cursor != null && !functionMode) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "cursor needs demo.GeospatialWebServer.queryMode=function or the local view");
+        }
+        if (tileCache != null) {
+            LocationChunk page = tileCache.findPage(minLng, minLat, maxLng, maxLat, cursor, resultLimit + 1, this::loadTiles);
+            if (page != null) {
+                return pageResponse(page, resultLimit, functionMode);
+            }
+        }
+        if (functionMode) {
+            return pageResponse(findPage(minLng, minLat, maxLng, maxLat, cursor, resultLimit), resultLimit, true);
+        }
+        int fetchSize = Math.max(1, Math.min(pageSize == null ? defaultPageSize : pageSize, resultLimit));
+        PageableLuceneQueryResults<String, LocationEvent> results = findLocations(minLng, minLat, maxLng, maxLat, resultLimit, fetchSize).findPages();
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(outputStream -> {
+            try (JsonGenerator generator = jsonFactory.createGenerator(outputStream)) {
+                generator.writeStartArray();
+                while (results.hasNext()) {
+                    for (LuceneResultStruct<String, LocationEvent> result : results.next()) {
+                        LocationEvent location = result.getValue();
+                        //gone since the query ran
+                        if (location != null) {
+                            writeLocation(generator, location.getLat(), location.getLng(), location.getUid());
+                        }
+                    }
+                    generator.flush();
+                }
+                generator.writeEndArray();
+            }
+        });
     }
+
+    /**
+     * The locations within radiusMiles of the point, nearest first and at most limit of them.  The servers score by
+     * distance and send back only their nearest, so a big circle costs what the limit costs.
+     */
+    @RequestMapping(value = "/near", method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<StreamingResponseBody> near(double lat, double lng, double radiusMiles,
+                                                      @RequestParam(required = false) Integer limit) throws LuceneQueryException {
+        if (!(radiusMiles > 0)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "radiusMiles has to be more than 0");
+        }
+        int resultLimit = Math.max(1, Math.min(limit == null ? maxLimit : limit, maxLimit));
+        return nearbyResponse(lat, lng, findNearest(lat, lng, radiusMiles, resultLimit));
+    }
+
+    /**
+     * The k locations nearest the point, nearest first.  Starts with a circle of nearestStartMiles and makes it four
+     * times wider until it has k in it - then nothing outside can be nearer than what is inside.
+     */
+    @RequestMapping(value = "/nearest", method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<StreamingResponseBody> nearest(double lat, double lng,
+                                                         @RequestParam(required = false, defaultValue = "10") int k) throws LuceneQueryException {
+        int resultLimit = Math.max(1, Math.min(k, maxLimit));
+        double radiusMiles = nearestStartMiles;
+        List<LocationEvent> nearest = findNearest(lat, lng, radiusMiles, resultLimit);
+        while (nearest.size() < resultLimit && radiusMiles < nearestMaxMiles) {
+            radiusMiles = Math.min(radiusMiles * 4, nearestMaxMiles);
+            nearest = findNearest(lat, lng, radiusMiles, resultLimit);
+        }
+        return nearbyResponse(lat, lng, nearest);
+    }
+
+    /**
+     * The locations inside a WKT geometry - a polygon, or with bufferMiles anything within that distance of it like a
+     * corridor along a line.  The index narrows it down to the locations in the cells covering the shape and the
+     * servers test those exactly with {@link LocationsInShapeFunction}.  Pages like /query in queryMode=function: uid
+     * order with X-Next-Cursor.  Long shapes can be sent as a form POST.
+     */
+    @RequestMapping(value = "/within", method = {RequestMethod.GET, RequestMethod.POST}, produces = "application/json")
+    public ResponseEntity<StreamingResponseBody> within(String wkt,
+                                                        @RequestParam(required = false) Double bufferMiles,
+                                                        @RequestParam(required = false) Integer limit,
+                                                        @RequestParam(required = false) String cursor) throws LuceneQueryException {
+        Geometry geometry;
+        try {
+            geometry = ShapeHelper.fromWkt(wkt);
+        } catch (ParseException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Not a WKT geometry: " + e.getMessage());
+        }
+        if (bufferMiles != null && bufferMiles > 0) {
+            geometry = ShapeHelper.buffer(geometry, bufferMiles);
+        } else if (geometry.getDimension() < 2) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Points and lines need a bufferMiles");
+        }
+        int resultLimit = Math.max(1, Math.min(limit == null ? maxLimit : limit, maxLimit));
+        return pageResponse(findInShape(ShapeHelper.toWkb(geometry), cursor, resultLimit), resultLimit, true);
+    }
+
+    /**
+     * How the tile cache is doing - hits and misses are counted per tile, bypassed is the requests that had too many
+     * locations around them to cache.
+     */
+    @RequestMapping(value = "/tileCache", method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<StreamingResponseBody> tileCacheStats() {
+        TileCache cache = tileCache;
+        if (cache == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "The tile cache needs demo.GeospatialWebServer.tileCache=true");
+        }
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(outputStream -> {
+            try (JsonGenerator generator = jsonFactory.createGenerator(outputStream)) {
+                long hits = cache.getHits();
+                long misses = cache.getMisses();
+                generator.writeStartObject();
+                generator.writeNumberField("hits", hits);
+                generator.writeNumberField("misses", misses);
+                generator.writeNumberField("hitRatio", hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+                generator.writeNumberField("expired", cache.getExpired());
+                generator.writeNumberField("evictions", cache.getEvictions());
+                generator.writeNumberField("bypassed", cache.getBypassed());
+                generator.writeNumberField("tiles", cache.size());
+                generator.writeNumberField("bytes", cache.getBytes());
+                generator.writeNumberField("maxBytes", cache.getMaxBytes());
+                generator.writeNumberField("ttlMs", cache.getTtlMs());
+                generator.writeEndObject();
+            }
+        });
+    }
+
+    /**
+     * Server sent events for the rectangle - a "snapshot" of what is in it and then a "diff" of what moved, entered
+     * and left at most every frameMs.
+     */
+    @RequestMapping(value = "/subscribe", method = RequestMethod.GET, produces = "text/event-stream")
+    public SseEmitter subscribe(double minLng, double minLat, double maxLng, double maxLat,
+                                @RequestParam(required = false) Long frameMs) throws IOException {
+        if (viewportSubscriptions == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Subscriptions need demo.GeospatialWebServer.subscriptions=true");
+        }
+        return viewportSubscriptions.subscribe(minLng, minLat, maxLng, maxLat, Math.max(minFrameMs, frameMs == null ? minFrameMs : frameMs));
+    }
+
+    /**
+     * The locations in the rectangle counted into a grid - one entry per cell that has any, with the count, the
+     * centroid and a sample uid.  With zoom (the OpenLayers / web map zoom level) a cell is clusterPixels across on
+     * screen, otherwise the rectangle is split into clusterColumns columns.  Cells are square in degrees.
+     */
+    @RequestMapping(value = "/clusters", method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<StreamingResponseBody> clusters(double minLng, double minLat, double maxLng, double maxLat,
+                                                          @RequestParam(required = false) Integer zoom,
+                                                          @RequestParam(required = false) Integer columns) {
+        double cellSize = zoom != null
+                ? 360.0 * clusterPixels / (256.0 * Math.pow(2, zoom))
+                : (maxLng - minLng) / Math.max(1, columns == null ? clusterColumns : columns);
+        if (!(cellSize > 0) || LocationGrid.cellCount(minLng, minLat, maxLng, maxLat, cellSize, cellSize) > maxClusterCells) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "More than " + maxClusterCells + " cells - zoom out or ask for fewer columns");
+        }
+        LocationGrid grid = findGrid(minLng, minLat, maxLng, maxLat, cellSize);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(outputStream -> {
+            try (JsonGenerator generator = jsonFactory.createGenerator(outputStream)) {
+                generator.writeStartArray();
+                for (int cell = 0; cell < grid.getCellCount(); cell++) {
+                    if (grid.getCount(cell) > 0) {
+                        generator.writeStartObject();
+                        generator.writeNumberField(LocationEvent.LAT, grid.getCentroidLat(cell));
+                        generator.writeNumberField(LocationEvent.LNG, grid.getCentroidLng(cell));
+                        generator.writeNumberField("count", grid.getCount(cell));
+                        generator.writeStringField(LocationEvent.UID, grid.getSample(cell));
+                        generator.writeEndObject();
+                    }
+                }
+                generator.writeEndArray();
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private LocationGrid findGrid(double minLng, double minLat, double maxLng, double maxLat, double cellSize) {
+        List<LocationGrid> grids = (List<LocationGrid>) FunctionService.onRegion(region)
+                .setArguments(new double[]{minLng, minLat, maxLng, maxLat, cellSize, cellSize})
+                .execute(LocationGridFunction.ID)
+                .getResult();
+        LocationGrid grid = new LocationGrid(minLng, minLat, maxLng, maxLat, cellSize, cellSize);
+        for (LocationGrid memberGrid : grids) {
+            grid.merge(memberGrid);
+        }
+        return grid;
+    }
+
+    private ResponseEntity<StreamingResponseBody> nearbyResponse(double lat, double lng, List<LocationEvent> locations) {
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(outputStream -> {
+            try (JsonGenerator generator = jsonFactory.createGenerator(outputStream)) {
+                generator.writeStartArray();
+                for (LocationEvent location : locations) {
+                    generator.writeStartObject();
+                    generator.writeNumberField(LocationEvent.LAT, location.getLat());
+                    generator.writeNumberField(LocationEvent.LNG, location.getLng());
+                    generator.writeStringField(LocationEvent.UID, location.getUid());
+                    generator.writeNumberField("distanceMiles", SpaitalHelper.distanceMiles(lng, lat, location.getLng(), location.getLat()));
+                    generator.writeEndObject();
+                }
+                generator.writeEndArray();
+            }
+        });
+    }
+
+    //a page holding one past the limit is full - with nextCursor the last uid sent says where the next one starts.
+    private ResponseEntity<StreamingResponseBody> pageResponse(LocationChunk page, int resultLimit, boolean nextCursor) {
+        int size = Math.min(page.size(), resultLimit);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON);
+        if (nextCursor && page.size() > resultLimit) {
+            response.header(NEXT_CURSOR, page.getUid(size - 1));
+        }
+        return response.body(outputStream -> {
+            try (JsonGenerator generator = jsonFactory.createGenerator(outputStream)) {
+                generator.writeStartArray();
+                for (int i = 0; i < size; i++) {
+                    writeLocation(generator, page.getLat(i), page.getLng(i), page.getUid(i));
+                }
+                generator.writeEndArray();
+            }
+        });
+    }
+
+    private static void writeLocation(JsonGenerator generator, float lat, float lng, String uid) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField(LocationEvent.LAT, lat);
+        generator.writeNumberField(LocationEvent.LNG, lng);
+        generator.writeStringField(LocationEvent.UID, uid);
+        generator.writeEndObject();
+    }
+
+    private LuceneQuery<String, LocationEvent> findLocations(double minLng, double minLat, double maxLng, double maxLat, int limit, int pageSize) {
+        LuceneQueryFactory queryFactory = LuceneServiceProvider.get(clientCache).createLuceneQueryFactory()
+                .setLimit(limit)
+                .setPageSize(pageSize);
+        //the helpers make the provider in tracker-lib - a lambda made here couldn't be deserialized on the servers.
+        return "latLonPoint".equalsIgnoreCase(indexType)
+                ? LatLonPointHelper.findInRectangle("simpleIndex", "geoSpatialRegion", minLng, minLat, maxLng, maxLat, queryFactory)
+                : cellQueries
+                ? SpaitalHelper.findInRectangleByCells("simpleIndex", "geoSpatialRegion", minLng, minLat, maxLng, maxLat, queryFactory)
+                : SpaitalHelper.findInRectangle("simpleIndex", "geoSpatialRegion", minLng, minLat, maxLng, maxLat, queryFactory);
+    }
+
+    //every member sends its first limit + 1 after the cursor, the first limit + 1 of the merge says if there's more.
+    @SuppressWarnings("unchecked")
+    private LocationChunk findPage(double minLng, double minLat, double maxLng, double maxLat, String cursor, int limit) {
+        Collection<List<LocationChunk>> streams = (Collection<List<LocationChunk>>) FunctionService.onRegion(region)
+                .setArguments(new Object[]{new double[]{minLng, minLat, maxLng, maxLat}, cursor, limit + 1})
+                .withCollector(new LocationChunkCollector())
+                .execute(LocationsInRectangleFunction.ID)
+                .getResult();
+        return LocationChunkCollector.merge(streams, limit);
+    }
+
+    //each server keeps its k best scores and the client keeps the k best of those - the sort here is only over k.
+    private List<LocationEvent> findNearest(double lat, double lng, double radiusMiles, int k) throws LuceneQueryException {
+        LuceneQueryFactory queryFactory = LuceneServiceProvider.get(clientCache).createLuceneQueryFactory().setLimit(k);
+        List<LuceneResultStruct<String, LocationEvent>> results = ("latLonPoint".equalsIgnoreCase(indexType)
+                ? LatLonPointHelper.findNearest("simpleIndex", "geoSpatialRegion", lng, lat, radiusMiles, queryFactory)
+                : SpaitalHelper.findNearest("simpleIndex", "geoSpatialRegion", lng, lat, radiusMiles, queryFactory))
+                .findResults();
+        List<LocationEvent> nearest = new ArrayList<>(results.size());
+        for (LuceneResultStruct<String, LocationEvent> result : results) {
+            //gone since the query ran
+            if (result.getValue() != null) {
+                nearest.add(result.getValue());
+            }
+        }
+        nearest.sort(Comparator.comparingDouble(location -> SpaitalHelper.distanceMiles(lng, lat, location.getLng(), location.getLat())));
+        return nearest;
+    }
+
+    //the keys the index finds go to the members holding them - too many and the members scan their own data instead.
+    @SuppressWarnings("unchecked")
+    private LocationChunk findInShape(byte[] wkb, String cursor, int limit) throws LuceneQueryException {
+        boolean latLonPoint = "latLonPoint".equalsIgnoreCase(indexType);
+        Collection<String> keys = LuceneServiceProvider.get(clientCache).createLuceneQueryFactory()
+                .setLimit(maxShapeCandidates + 1)
+                .<String, LocationEvent>create("simpleIndex", "geoSpatialRegion", ShapeHelper.candidatesProvider(wkb, latLonPoint))
+                .findKeys();
+        if (keys.isEmpty()) {
+            return new LocationChunk();
+        }
+        Execution<Object[], Object, Collection<List<LocationChunk>>> execution = FunctionService.onRegion(region)
+                .setArguments(new Object[]{wkb, cursor, limit + 1})
+                .withCollector(new LocationChunkCollector());
+        if (keys.size() <= maxShapeCandidates) {
+            execution = execution.withFilter(new HashSet<>(keys));
+        }
+        Collection<List<LocationChunk>> streams = execution.execute(LocationsInShapeFunction.ID).getResult();
+        return LocationChunkCollector.merge(streams, limit);
+    }
+
+    //everything in the rectangle the tile cache asks for, the same way /query would ask for it.
+    private LocationChunk loadTiles(double minLng, double minLat, double maxLng, double maxLat, int limit) throws LuceneQueryException {
+        if ("function".equalsIgnoreCase(queryMode)) {
+            return findPage(minLng, minLat, maxLng, maxLat, null, limit);
+        }
+        LocationChunk locations = new LocationChunk(limit + 1);
+        PageableLuceneQueryResults<String, LocationEvent> results = findLocations(minLng, minLat, maxLng, maxLat, limit + 1, defaultPageSize).findPages();
+        while (results.hasNext() && !locations.isFull()) {
+            for (LuceneResultStruct<String, LocationEvent> result : results.next()) {
+                LocationEvent location = result.getValue();
+                if (location != null && !locations.isFull()) {
+                    locations.add(location);
+                }
+            }
+        }
+        return locations;
+    }
+
     public static void main(String[] args) {
         SpringApplication.run(GeospatialWebServer.class, args);
     }
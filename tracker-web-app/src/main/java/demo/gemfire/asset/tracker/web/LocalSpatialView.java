@@ -0,0 +1,348 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.web;
+
+import demo.gemfire.asset.tracker.lib.LocationChunk;
+import demo.gemfire.asset.tracker.lib.LocationEvent;
+import org.apache.geode.cache.client.ClientCache;
+import org.apache.geode.cache.query.CqAttributesFactory;
+import org.apache.geode.cache.query.CqEvent;
+import org.apache.geode.cache.query.CqQuery;
+import org.apache.geode.cache.query.CqStatusListener;
+import org.apache.geode.cache.query.SelectResults;
+import org.apache.geode.cache.query.Struct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The latest location of every asset kept in the web application by a continuous query, so viewport queries are
+ * answered from memory and the servers only see the updates - once per web application instead of once per query.
+ * <p>
+ * The locations are indexed in a grid of square cells.  Updates come in on the subscription thread while queries
+ * read, so an asset moving between cells is added to the new cell before it leaves the old one and a query only
+ * takes an asset from the cell its location says it is in.
+ * <p>
+ * While the subscription is down updates are lost, so the view only counts as fresh for the staleness bound after a
+ * disconnect and loads everything again once it is back - retrying with a growing delay until a load goes through,
+ * and only fresh again after one has.
+ */
+public class LocalSpatialView implements CqStatusListener {
+    private static final Logger logger = LoggerFactory.getLogger(LocalSpatialView.class);
+    private static final long FIRST_RETRY_MS = 1000;
+    private static final long MAX_RETRY_MS = 30000;
+    private final ClientCache clientCache;
+    private final String regionName;
+    private final double cellSize;
+    private final long stalenessNanos;
+    private final Map<String, Position> positions = new ConcurrentHashMap<>();
+    private final Map<Long, Set<String>> cells = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService reloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "LocalSpatialView reload");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger generation = new AtomicInteger();
+    //the uids the listener updated while a load was running - newer than what the initial results have for them.
+    private final Set<String> touchedDuringLoad = ConcurrentHashMap.newKeySet();
+    private final Object writeLock = new Object();
+    private volatile boolean loading;
+    private final List<ChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+    private volatile CqQuery cqQuery;
+    private volatile boolean loaded;
+    //when the subscription went down, 0 while it is up and the view has everything since.
+    private final AtomicLong disconnectedAt = new AtomicLong();
+    private final AtomicInteger disconnects = new AtomicInteger();
+    //one reload and its retries at a time.
+    private final AtomicBoolean reloading = new AtomicBoolean();
+
+    public LocalSpatialView(ClientCache clientCache, String regionName, double cellSize, long stalenessMs) {
+        this.clientCache = clientCache;
+        this.regionName = regionName;
+        this.cellSize = cellSize;
+        this.stalenessNanos = TimeUnit.MILLISECONDS.toNanos(stalenessMs);
+    }
+
+    /**
+     * Register the continuous query and load what is there - the client cache needs subscriptions enabled.
+     */
+    public void start() throws Exception {
+        load();
+    }
+
+    /**
+     * True when the view is loaded and the subscription has not been down for longer than the staleness bound.
+     */
+    public boolean isFresh() {
+        long since = disconnectedAt.get();
+        return loaded && (since == 0 || System.nanoTime() - since <= stalenessNanos);
+    }
+
+    /**
+     * Told about every change after it is in the view - on the subscription thread, so keep it quick.
+     */
+    public void addChangeListener(ChangeListener changeListener) {
+        changeListeners.add(changeListener);
+    }
+
+    public void removeChangeListener(ChangeListener changeListener) {
+        changeListeners.remove(changeListener);
+    }
+
+    public int size() {
+        return positions.size();
+    }
+
+    /**
+     * The first limit locations in the rectangle by uid after the given uid, in uid order.
+     */
+    public LocationChunk findPage(double minLng, double minLat, double maxLng, double maxLat, String afterUid, int limit) {
+        Comparator<Map.Entry<String, Position>> byUid = Map.Entry.comparingByKey();
+        PriorityQueue<Map.Entry<String, Position>> first = new PriorityQueue<>(byUid.reversed());
+        long minColumn = column(minLng);
+        long maxColumn = column(maxLng);
+        long minRow = row(minLat);
+        long maxRow = row(maxLat);
+        for (long column = minColumn; column <= maxColumn; column++) {
+            for (long row = minRow; row <= maxRow; row++) {
+                long cell = cell(column, row);
+                Set<String> uids = cells.get(cell);
+                if (uids == null) {
+                    continue;
+                }
+                for (String uid : uids) {
+                    Position position = positions.get(uid);
+                    if (position == null || position.cell != cell
+                            || position.lng < minLng || position.lng > maxLng || position.lat < minLat || position.lat > maxLat
+                            || (afterUid != null && uid.compareTo(afterUid) <= 0)) {
+                        continue;
+                    }
+                    Map.Entry<String, Position> entry = Map.entry(uid, position);
+                    if (first.size() < limit) {
+                        first.add(entry);
+                    } else if (byUid.compare(entry, first.peek()) < 0) {
+                        first.poll();
+                        first.add(entry);
+                    }
+                }
+            }
+        }
+        List<Map.Entry<String, Position>> sorted = new ArrayList<>(first);
+        sorted.sort(byUid);
+        LocationChunk page = new LocationChunk(sorted.size());
+        for (Map.Entry<String, Position> entry : sorted) {
+            page.add(entry.getValue().lat, entry.getValue().lng, entry.getKey());
+        }
+        return page;
+    }
+
+    public void close() {
+        reloader.shutdownNow();
+        closeQuietly(cqQuery);
+    }
+
+    @Override
+    public void onEvent(CqEvent cqEvent) {
+        String uid = (String) cqEvent.getKey();
+        if (loading) {
+            touchedDuringLoad.add(uid);
+        }
+        if (cqEvent.getBaseOperation().isDestroy() || cqEvent.getQueryOperation().isDestroy()) {
+            remove(uid);
+        } else if (cqEvent.getNewValue() instanceof LocationEvent) {
+            LocationEvent locationEvent = (LocationEvent) cqEvent.getNewValue();
+            update(uid, locationEvent.getLat(), locationEvent.getLng());
+        }
+    }
+
+    @Override
+    public void onError(CqEvent cqEvent) {
+        logger.warn("Continuous query error for {}", cqEvent.getKey(), cqEvent.getThrowable());
+    }
+
+    @Override
+    public void onCqDisconnected() {
+        logger.warn("Lost the subscription for the local spatial view");
+        //the first disconnect counts - a reload that hasn't gone through yet doesn't restart the clock.
+        disconnectedAt.compareAndSet(0, System.nanoTime());
+        disconnects.incrementAndGet();
+    }
+
+    @Override
+    public void onCqConnected() {
+        if (disconnectedAt.get() != 0 && reloading.compareAndSet(false, true)) {
+            logger.info("Subscription back - reloading the local spatial view");
+            reloader.execute(() -> reload(FIRST_RETRY_MS));
+        }
+    }
+
+    //until a load goes through the view stays disconnected, so once past the staleness bound /query uses the servers.
+    private void reload(long retryMs) {
+        try {
+            load();
+            reloading.set(false);
+            //went down again while loading - the reload after that reconnect was skipped.
+            if (disconnectedAt.get() != 0) {
+                onCqConnected();
+            }
+        } catch (Exception e) {
+            logger.error("Could not reload the local spatial view - trying again in {} ms", retryMs, e);
+            reloader.schedule(() -> reload(Math.min(retryMs * 2, MAX_RETRY_MS)), retryMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    //a new continuous query with its initial results, anything the initial results don't have is gone.  The view is
+    // only back up to date - and the disconnect forgotten - once the initial results are in.
+    private synchronized void load() throws Exception {
+        int disconnected = disconnects.get();
+        CqAttributesFactory attributesFactory = new CqAttributesFactory();
+        attributesFactory.addCqListener(this);
+        CqQuery newQuery = clientCache.getQueryService().newCq("LocalSpatialView-" + generation.incrementAndGet(),
+                "SELECT * FROM /" + regionName, attributesFactory.create());
+        CqQuery oldQuery = cqQuery;
+        touchedDuringLoad.clear();
+        loading = true;
+        try {
+            SelectResults<Struct> initialResults;
+            try {
+                initialResults = newQuery.executeWithInitialResults();
+            } catch (Exception e) {
+                closeQuietly(newQuery);
+                throw e;
+            }
+            cqQuery = newQuery;
+            closeQuietly(oldQuery);
+
+            Set<String> present = new HashSet<>(initialResults.size() * 2);
+            for (Struct struct : initialResults) {
+                String uid = (String) struct.get("key");
+                present.add(uid);
+                if (!touchedDuringLoad.contains(uid)) {
+                    LocationEvent locationEvent = (LocationEvent) struct.get("value");
+                    update(uid, locationEvent.getLat(), locationEvent.getLng());
+                }
+            }
+            for (String uid : positions.keySet()) {
+                if (!present.contains(uid) && !touchedDuringLoad.contains(uid)) {
+                    remove(uid);
+                }
+            }
+        } finally {
+            loading = false;
+            touchedDuringLoad.clear();
+        }
+        loaded = true;
+        //a disconnect while loading lost updates this load may not have - keep counting from the first one.
+        if (disconnects.get() == disconnected) {
+            disconnectedAt.set(0);
+        }
+        logger.info("Local spatial view loaded with {} locations", positions.size());
+    }
+
+    //writes take the lock so an emptied cell can't be dropped from under an add, queries never do.
+    private void update(String uid, float lat, float lng) {
+        long cell = cell(column(lng), row(lat));
+        synchronized (writeLock) {
+            Position old = positions.get(uid);
+            if (old == null || old.cell != cell) {
+                cells.computeIfAbsent(cell, key -> ConcurrentHashMap.newKeySet()).add(uid);
+            }
+            positions.put(uid, new Position(lat, lng, cell));
+            if (old != null && old.cell != cell) {
+                removeFromCell(old.cell, uid);
+            }
+        }
+        for (ChangeListener changeListener : changeListeners) {
+            changeListener.onUpdate(uid, lat, lng);
+        }
+    }
+
+    private void remove(String uid) {
+        synchronized (writeLock) {
+            Position old = positions.remove(uid);
+            if (old == null) {
+                return;
+            }
+            removeFromCell(old.cell, uid);
+        }
+        for (ChangeListener changeListener : changeListeners) {
+            changeListener.onRemove(uid);
+        }
+    }
+
+    private void removeFromCell(long cell, String uid) {
+        cells.computeIfPresent(cell, (key, uids) -> {
+            uids.remove(uid);
+            return uids.isEmpty() ? null : uids;
+        });
+    }
+
+    private long column(double lng) {
+        return (long) Math.floor((lng + 180) / cellSize);
+    }
+
+    private long row(double lat) {
+        return (long) Math.floor((lat + 90) / cellSize);
+    }
+
+    private static long cell(long column, long row) {
+        return column << 32 | (row & 0xFFFFFFFFL);
+    }
+
+    private static void closeQuietly(CqQuery query) {
+        if (query != null) {
+            try {
+                query.close();
+            } catch (Exception e) {
+                logger.warn("Could not close {}", query.getName(), e);
+            }
+        }
+    }
+
+    public interface ChangeListener {
+        void onUpdate(String uid, float lat, float lng);
+
+        void onRemove(String uid);
+    }
+
+    private static class Position {
+        private final float lat;
+        private final float lng;
+        private final long cell;
+
+        private Position(float lat, float lng, long cell) {
+            this.lat = lat;
+            this.lng = lng;
+            this.cell = cell;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.web;
+
+import demo.gemfire.asset.tracker.lib.LocationChunk;
+import org.apache.geode.cache.execute.FunctionException;
+import org.apache.geode.cache.execute.ResultCollector;
+import org.apache.geode.distributed.DistributedMember;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the {@link LocationChunk}s from {@link demo.gemfire.asset.tracker.lib.LocationsInRectangleFunction} apart
+ * by member.  Each member sends its locations in uid order, so a page across the cluster is a merge of the members'
+ * streams - see {@link #merge(Collection, int)}.
+ */
+public class LocationChunkCollector implements ResultCollector<Object, Collection<List<LocationChunk>>> {
+    private final Map<DistributedMember, List<LocationChunk>> byMember = new LinkedHashMap<>();
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    @Override
+    public synchronized void addResult(DistributedMember memberID, Object resultOfSingleExecution) {
+        if (resultOfSingleExecution instanceof Throwable) {
+            throw new FunctionException((Throwable) resultOfSingleExecution);
+        }
+        byMember.computeIfAbsent(memberID, member -> new ArrayList<>()).add((LocationChunk) resultOfSingleExecution);
+    }
+
+    @Override
+    public Collection<List<LocationChunk>> getResult() throws FunctionException {
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FunctionException(e);
+        }
+        return results();
+    }
+
+    @Override
+    public Collection<List<LocationChunk>> getResult(long timeout, TimeUnit unit) throws FunctionException, InterruptedException {
+        if (!done.await(timeout, unit)) {
+            throw new FunctionException("Timed out waiting for the location chunks");
+        }
+        return results();
+    }
+
+    @Override
+    public void endResults() {
+        done.countDown();
+    }
+
+    @Override
+    public synchronized void clearResults() {
+        byMember.clear();
+    }
+
+    private synchronized Collection<List<LocationChunk>> results() {
+        return new ArrayList<>(byMember.values());
+    }
+
+    /**
+     * Merge the uid ordered streams and keep the first limit locations - one past the limit when there are more, so
+     * the caller can tell the page is full.
+     */
+    public static LocationChunk merge(Collection<List<LocationChunk>> streams, int limit) {
+        PriorityQueue<Position> heads = new PriorityQueue<>((a, b) -> a.uid.compareTo(b.uid));
+        for (List<LocationChunk> stream : streams) {
+            Position position = new Position(stream);
+            if (position.next()) {
+                heads.add(position);
+            }
+        }
+        LocationChunk merged = new LocationChunk(limit + 1);
+        while (!heads.isEmpty() && !merged.isFull()) {
+            Position head = heads.poll();
+            LocationChunk chunk = head.stream.get(head.chunk);
+            merged.add(chunk.getLat(head.index), chunk.getLng(head.index), head.uid);
+            if (head.next()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    private static class Position {
+        private final List<LocationChunk> stream;
+        private int chunk;
+        private int index = -1;
+        private String uid;
+
+        private Position(List<LocationChunk> stream) {
+            this.stream = stream;
+        }
+
+        private boolean next() {
+            index++;
+            while (chunk < stream.size() && index >= stream.get(chunk).size()) {
+                chunk++;
+                index = 0;
+            }
+            if (chunk == stream.size()) {
+                return false;
+            }
+            uid = stream.get(chunk).getUid(index);
+            return true;
+        }
+    }
+}
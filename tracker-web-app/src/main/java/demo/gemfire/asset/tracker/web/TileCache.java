@@ -0,0 +1,405 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.web;
+
+import demo.gemfire.asset.tracker.lib.LocationChunk;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Viewport results cached by tile, so panning and zooming over the same area doesn't send a new query to the servers
+ * for every pixel the box moves.
+ * <p>
+ * A box is snapped out to a grid of square tiles lined up with lng -180 and lat -90.  The tiles double in size level
+ * by level until the box needs no more than maxTiles of them, so a zoomed out view uses a few big tiles instead of
+ * thousands of small ones.  Whatever tiles are missing or older than the TTL are loaded with one query for the
+ * rectangle around them and the answer is put together from the tiles, cut down to the box.
+ * <p>
+ * Tiles are evicted least recently used first once their estimated size goes over maxBytes.  Two requests missing the
+ * same tile at the same time both load it - the later one wins.
+ * <p>
+ * A load that brings back more than maxLocations is remembered for the TTL, so until then any request missing those
+ * tiles or more goes straight to the servers instead of loading them again first.
+ */
+public class TileCache {
+    //the arrays in a LocationChunk plus a short uid string - a guess, it only has to be in the right ballpark.
+    private static final int BYTES_PER_LOCATION = 64;
+    private static final int BYTES_PER_TILE = 128;
+    private static final int MAX_LEVEL = 30;
+    private static final int MAX_CROWDED = 1024;
+    private final double tileSize;
+    private final int maxTiles;
+    private final long ttlNanos;
+    private final long maxBytes;
+    private final int maxLocations;
+    private final LinkedHashMap<Tile, Entry> tiles = new LinkedHashMap<>(16, 0.75f, true);
+    //tile ranges that had too many locations to cache, and when that was found out.
+    private final LinkedHashMap<Range, Long> crowded = new LinkedHashMap<>();
+    private long bytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+
+    /**
+     * @param tileSize     the side of the smallest tile in degrees.
+     * @param maxTiles     the most tiles one box is split into.
+     * @param maxLocations the most locations one load brings back - with more the request isn't cached at all.
+     */
+    public TileCache(double tileSize, int maxTiles, long ttlMs, long maxBytes, int maxLocations) {
+        this.tileSize = tileSize;
+        this.maxTiles = maxTiles;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        this.maxBytes = maxBytes;
+        this.maxLocations = maxLocations;
+    }
+
+    /**
+     * The first limit locations in the rectangle by uid after the given uid, in uid order - or null when there are
+     * too many locations around the rectangle to cache and the caller should ask the servers itself.
+     */
+    public <E extends Exception> LocationChunk findPage(double minLng, double minLat, double maxLng, double maxLat,
+                                                        String afterUid, int limit, Loader<E> loader) throws E {
+        int level = 0;
+        double side = tileSize;
+        while (level < MAX_LEVEL && tileCount(minLng, minLat, maxLng, maxLat, side) > maxTiles) {
+            level++;
+            side *= 2;
+        }
+        long minColumn = column(minLng, side);
+        long maxColumn = column(maxLng, side);
+        long minRow = row(minLat, side);
+        long maxRow = row(maxLat, side);
+
+        Map<Tile, Entry> found = new HashMap<>();
+        long missingMinColumn = Long.MAX_VALUE, missingMaxColumn = Long.MIN_VALUE;
+        long missingMinRow = Long.MAX_VALUE, missingMaxRow = Long.MIN_VALUE;
+        long now = System.nanoTime();
+        synchronized (this) {
+            for (long column = minColumn; column <= maxColumn; column++) {
+                for (long row = minRow; row <= maxRow; row++) {
+                    Tile tile = new Tile(level, column, row);
+                    Entry entry = tiles.get(tile);
+                    if (entry != null && now - entry.loadedAt > ttlNanos) {
+                        remove(tile);
+                        expired.increment();
+                        entry = null;
+                    }
+                    if (entry != null) {
+                        hits.increment();
+                        found.put(tile, entry);
+                    } else {
+                        misses.increment();
+                        missingMinColumn = Math.min(missingMinColumn, column);
+                        missingMaxColumn = Math.max(missingMaxColumn, column);
+                        missingMinRow = Math.min(missingMinRow, row);
+                        missingMaxRow = Math.max(missingMaxRow, row);
+                    }
+                }
+            }
+            if (missingMinColumn != Long.MAX_VALUE
+                    && isCrowded(level, missingMinColumn, missingMinRow, missingMaxColumn, missingMaxRow, now)) {
+                bypassed.increment();
+                return null;
+            }
+        }
+
+        if (missingMinColumn != Long.MAX_VALUE) {
+            Map<Tile, Entry> loaded = load(level, side, missingMinColumn, missingMinRow, missingMaxColumn, missingMaxRow, loader);
+            if (loaded == null) {
+                synchronized (this) {
+                    crowded.put(new Range(level, missingMinColumn, missingMinRow, missingMaxColumn, missingMaxRow), now);
+                    if (crowded.size() > MAX_CROWDED) {
+                        crowded.remove(crowded.keySet().iterator().next());
+                    }
+                }
+                bypassed.increment();
+                return null;
+            }
+            found.putAll(loaded);
+            synchronized (this) {
+                for (Map.Entry<Tile, Entry> tile : loaded.entrySet()) {
+                    remove(tile.getKey());
+                    tiles.put(tile.getKey(), tile.getValue());
+                    bytes += tile.getValue().bytes;
+                }
+                evict();
+            }
+        }
+        return assemble(found, minLng, minLat, maxLng, maxLat, afterUid, limit);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getBypassed() {
+        return bypassed.sum();
+    }
+
+    public synchronized int size() {
+        return tiles.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getTtlMs() {
+        return TimeUnit.NANOSECONDS.toMillis(ttlNanos);
+    }
+
+    public synchronized void clear() {
+        tiles.clear();
+        crowded.clear();
+        bytes = 0;
+    }
+
+    //a range holding one that had too many locations has too many as well.
+    private boolean isCrowded(int level, long minColumn, long minRow, long maxColumn, long maxRow, long now) {
+        Iterator<Map.Entry<Range, Long>> ranges = crowded.entrySet().iterator();
+        while (ranges.hasNext()) {
+            Map.Entry<Range, Long> range = ranges.next();
+            if (now - range.getValue() > ttlNanos) {
+                ranges.remove();
+            } else if (range.getKey().isInside(level, minColumn, minRow, maxColumn, maxRow)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //one query for the rectangle around the missing tiles, split up into every tile in it.
+    private <E extends Exception> Map<Tile, Entry> load(int level, double side, long minColumn, long minRow, long maxColumn, long maxRow,
+                                                        Loader<E> loader) throws E {
+        long loadedAt = System.nanoTime();
+        LocationChunk locations = loader.load(minColumn * side - 180, minRow * side - 90,
+                (maxColumn + 1) * side - 180, (maxRow + 1) * side - 90, maxLocations);
+        if (locations.size() > maxLocations) {
+            return null;
+        }
+        Map<Tile, List<Integer>> byTile = new HashMap<>();
+        for (int i = 0; i < locations.size(); i++) {
+            long column = column(locations.getLng(i), side);
+            long row = row(locations.getLat(i), side);
+            //on the far edge - it belongs to the next tile over, which gets its own load.
+            if (column >= minColumn && column <= maxColumn && row >= minRow && row <= maxRow) {
+                byTile.computeIfAbsent(new Tile(level, column, row), tile -> new ArrayList<>()).add(i);
+            }
+        }
+        Map<Tile, Entry> loaded = new HashMap<>();
+        for (long column = minColumn; column <= maxColumn; column++) {
+            for (long row = minRow; row <= maxRow; row++) {
+                Tile tile = new Tile(level, column, row);
+                List<Integer> indexes = byTile.getOrDefault(tile, List.of());
+                LocationChunk chunk = new LocationChunk(indexes.size());
+                for (int i : indexes) {
+                    chunk.add(locations.getLat(i), locations.getLng(i), locations.getUid(i));
+                }
+                loaded.put(tile, new Entry(chunk, loadedAt));
+            }
+        }
+        return loaded;
+    }
+
+    //an asset that moved between loads can be in two tiles - the newer tile has it where it is now.
+    private static LocationChunk assemble(Map<Tile, Entry> found, double minLng, double minLat, double maxLng, double maxLat,
+                                          String afterUid, int limit) {
+        Map<String, Location> inside = new HashMap<>();
+        for (Entry entry : found.values()) {
+            LocationChunk chunk = entry.locations;
+            for (int i = 0; i < chunk.size(); i++) {
+                float lat = chunk.getLat(i);
+                float lng = chunk.getLng(i);
+                if (lng < minLng || lng > maxLng || lat < minLat || lat > maxLat) {
+                    continue;
+                }
+                String uid = chunk.getUid(i);
+                if (afterUid != null && uid.compareTo(afterUid) <= 0) {
+                    continue;
+                }
+                Location location = inside.get(uid);
+                if (location == null || location.loadedAt < entry.loadedAt) {
+                    inside.put(uid, new Location(lat, lng, entry.loadedAt));
+                }
+            }
+        }
+        List<String> uids = new ArrayList<>(inside.keySet());
+        uids.sort(null);
+        LocationChunk page = new LocationChunk(Math.min(uids.size(), limit));
+        for (String uid : uids) {
+            if (page.isFull()) {
+                break;
+            }
+            Location location = inside.get(uid);
+            page.add(location.lat, location.lng, uid);
+        }
+        return page;
+    }
+
+    private void remove(Tile tile) {
+        Entry old = tiles.remove(tile);
+        if (old != null) {
+            bytes -= old.bytes;
+        }
+    }
+
+    private void evict() {
+        Iterator<Entry> eldest = tiles.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().bytes;
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    private static long tileCount(double minLng, double minLat, double maxLng, double maxLat, double side) {
+        return (column(maxLng, side) - column(minLng, side) + 1) * (row(maxLat, side) - row(minLat, side) + 1);
+    }
+
+    private static long column(double lng, double side) {
+        return (long) Math.floor((lng + 180) / side);
+    }
+
+    private static long row(double lat, double side) {
+        return (long) Math.floor((lat + 90) / side);
+    }
+
+    /**
+     * Brings back the locations in a rectangle, at most limit of them - one more when there are more.
+     */
+    public interface Loader<E extends Exception> {
+        LocationChunk load(double minLng, double minLat, double maxLng, double maxLat, int limit) throws E;
+    }
+
+    private static final class Tile {
+        private final int level;
+        private final long column;
+        private final long row;
+
+        private Tile(int level, long column, long row) {
+            this.level = level;
+            this.column = column;
+            this.row = row;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Tile)) {
+                return false;
+            }
+            Tile tile = (Tile) o;
+            return level == tile.level && column == tile.column && row == tile.row;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(level, column, row);
+        }
+    }
+
+    private static final class Range {
+        private final int level;
+        private final long minColumn;
+        private final long minRow;
+        private final long maxColumn;
+        private final long maxRow;
+
+        private Range(int level, long minColumn, long minRow, long maxColumn, long maxRow) {
+            this.level = level;
+            this.minColumn = minColumn;
+            this.minRow = minRow;
+            this.maxColumn = maxColumn;
+            this.maxRow = maxRow;
+        }
+
+        private boolean isInside(int level, long minColumn, long minRow, long maxColumn, long maxRow) {
+            return this.level == level && this.minColumn >= minColumn && this.minRow >= minRow
+                    && this.maxColumn <= maxColumn && this.maxRow <= maxRow;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Range)) {
+                return false;
+            }
+            Range range = (Range) o;
+            return level == range.level && minColumn == range.minColumn && minRow == range.minRow
+                    && maxColumn == range.maxColumn && maxRow == range.maxRow;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(level, minColumn, minRow, maxColumn, maxRow);
+        }
+    }
+
+    private static class Entry {
+        private final LocationChunk locations;
+        private final long loadedAt;
+        private final long bytes;
+
+        private Entry(LocationChunk locations, long loadedAt) {
+            this.locations = locations;
+            this.loadedAt = loadedAt;
+            this.bytes = BYTES_PER_TILE + (long) locations.size() * BYTES_PER_LOCATION;
+        }
+    }
+
+    private static class Location {
+        private final float lat;
+        private final float lng;
+        private final long loadedAt;
+
+        private Location(float lat, float lng, long loadedAt) {
+            this.lat = lat;
+            this.lng = lng;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright [2016] Charlie Black
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.gemfire.asset.tracker.web;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import demo.gemfire.asset.tracker.lib.LocationChunk;
+import demo.gemfire.asset.tracker.lib.LocationEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes what happens inside a viewport to the browser over server sent events.
+ * <p>
+ * A subscriber gets a "snapshot" event with the locations in the viewport and from then on a "diff" event per frame
+ * with the assets that moved inside it, entered it or left it - nothing when nothing changed.  Changes come from the
+ * {@link LocalSpatialView}'s continuous query and are coalesced per asset between frames, so what gets sent follows
+ * how much changes in the viewport, not how much is in it, and the servers see no queries at all.
+ */
+public class ViewportSubscriptions implements LocalSpatialView.ChangeListener {
+    private static final Logger logger = LoggerFactory.getLogger(ViewportSubscriptions.class);
+    private static final float[] REMOVED = new float[0];
+    private final LocalSpatialView spatialView;
+    private final int maxLocations;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final ScheduledExecutorService frames = Executors.newScheduledThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "ViewportSubscriptions frames");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param maxLocations the most locations one subscriber is sent - the snapshot is cut there and assets only
+     *                     enter while the subscriber has fewer.
+     */
+    public ViewportSubscriptions(LocalSpatialView spatialView, int maxLocations) {
+        this.spatialView = spatialView;
+        this.maxLocations = maxLocations;
+        spatialView.addChangeListener(this);
+    }
+
+    public SseEmitter subscribe(double minLng, double minLat, double maxLng, double maxLat, long frameMs) throws IOException {
+        SseEmitter emitter = new SseEmitter(0L);
+        Subscription subscription = new Subscription(minLng, minLat, maxLng, maxLat, emitter);
+        //listening before the snapshot is taken - whatever changes in between comes out in the first frame.
+        subscriptions.add(subscription);
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(throwable -> subscription.cancel());
+        try {
+            subscription.sendSnapshot();
+        } catch (IOException e) {
+            subscription.cancel();
+            throw e;
+        }
+        subscription.frame = frames.scheduleAtFixedRate(subscription::sendDiff, frameMs, frameMs, TimeUnit.MILLISECONDS);
+        return emitter;
+    }
+
+    public int size() {
+        return subscriptions.size();
+    }
+
+    //anything the subscriber has or may get in the next frame is recorded, sendDiff decides what it means.
+    @Override
+    public void onUpdate(String uid, float lat, float lng) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.contains(lat, lng) || subscription.isTracked(uid)) {
+                subscription.pending.put(uid, new float[]{lat, lng});
+            }
+        }
+    }
+
+    @Override
+    public void onRemove(String uid) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.isTracked(uid)) {
+                subscription.pending.put(uid, REMOVED);
+            }
+        }
+    }
+
+    private class Subscription {
+        private final double minLng;
+        private final double minLat;
+        private final double maxLng;
+        private final double maxLat;
+        private final SseEmitter emitter;
+        //what the subscriber has, only changed on the thread sending to it.
+        private final Set<String> inView = ConcurrentHashMap.newKeySet();
+        //the latest location per asset since the last frame.
+        private final Map<String, float[]> pending = new ConcurrentHashMap<>();
+        private volatile ScheduledFuture<?> frame;
+
+        private Subscription(double minLng, double minLat, double maxLng, double maxLat, SseEmitter emitter) {
+            this.minLng = minLng;
+            this.minLat = minLat;
+            this.maxLng = maxLng;
+            this.maxLat = maxLat;
+            this.emitter = emitter;
+        }
+
+        private boolean contains(float lat, float lng) {
+            return lng >= minLng && lng <= maxLng && lat >= minLat && lat <= maxLat;
+        }
+
+        //pending first - sendDiff changes inView before it lets go of the pending entry, so one of the two sees it.
+        private boolean isTracked(String uid) {
+            return pending.containsKey(uid) || inView.contains(uid);
+        }
+
+        private void sendSnapshot() throws IOException {
+            LocationChunk snapshot = spatialView.findPage(minLng, minLat, maxLng, maxLat, null, maxLocations);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+                generator.writeStartArray();
+                for (int i = 0; i < snapshot.size(); i++) {
+                    String uid = snapshot.getUid(i);
+                    writeLocation(generator, snapshot.getLat(i), snapshot.getLng(i), uid);
+                    inView.add(uid);
+                }
+                generator.writeEndArray();
+            }
+            send("snapshot", out);
+        }
+
+        private void sendDiff() {
+            try {
+                List<String> moved = new ArrayList<>();
+                List<String> entered = new ArrayList<>();
+                List<String> left = new ArrayList<>();
+                Map<String, float[]> locations = new HashMap<>();
+                for (String changed : pending.keySet()) {
+                    //taken out and applied to inView in one go, so an update can't slip in between the two.
+                    pending.computeIfPresent(changed, (uid, location) -> {
+                        boolean inside = location != REMOVED && contains(location[0], location[1]);
+                        if (inView.contains(uid)) {
+                            if (inside) {
+                                moved.add(uid);
+                                locations.put(uid, location);
+                            } else {
+                                inView.remove(uid);
+                                left.add(uid);
+                            }
+                        } else if (inside && inView.size() < maxLocations) {
+                            inView.add(uid);
+                            entered.add(uid);
+                            locations.put(uid, location);
+                        }
+                        return null;
+                    });
+                }
+                if (moved.isEmpty() && entered.isEmpty() && left.isEmpty()) {
+                    return;
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+                    generator.writeStartObject();
+                    writeLocations(generator, "moved", moved, locations);
+                    writeLocations(generator, "entered", entered, locations);
+                    generator.writeArrayFieldStart("left");
+                    for (String uid : left) {
+                        generator.writeString(uid);
+                    }
+                    generator.writeEndArray();
+                    generator.writeEndObject();
+                }
+                send("diff", out);
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Dropping viewport subscription", e);
+                cancel();
+            }
+        }
+
+        private void writeLocations(JsonGenerator generator, String name, List<String> uids, Map<String, float[]> locations) throws IOException {
+            generator.writeArrayFieldStart(name);
+            for (String uid : uids) {
+                float[] location = locations.get(uid);
+                writeLocation(generator, location[0], location[1], uid);
+            }
+            generator.writeEndArray();
+        }
+
+        private void send(String name, ByteArrayOutputStream json) throws IOException {
+            emitter.send(SseEmitter.event().name(name).data(json.toString(StandardCharsets.UTF_8), MediaType.APPLICATION_JSON));
+        }
+
+        private void cancel() {
+            subscriptions.remove(this);
+            ScheduledFuture<?> scheduled = frame;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+    }
+
+    private static void writeLocation(JsonGenerator generator, float lat, float lng, String uid) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField(LocationEvent.LAT, lat);
+        generator.writeNumberField(LocationEvent.LNG, lng);
+        generator.writeStringField(LocationEvent.UID, uid);
+        generator.writeEndObject();
+    }
+}